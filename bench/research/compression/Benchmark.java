@@ -0,0 +1,291 @@
+package research.compression;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import research.lib.Document;
+import research.lib.DocumentImporter;
+import research.lib.MyBerkeleyLm;
+import research.lib.Sentence;
+
+/**
+ * Measures the time and memory allocated by each stage of compressing a
+ * sentence, for fixture sentences of different lengths: parsing
+ * (DocumentImporter.generateParses), initializing the parsed sentence
+ * (Sentence.initialize and Document.getTopicWordData), scoring the n-grams
+ * with the lm, building the ILP, solving it, and compressing the sentence end
+ * to end from raw text. Each measurement runs the stage repeatedly for a fixed
+ * time, after some warmup iterations, and reports the mean time per operation
+ * and the bytes allocated per operation by the benchmark thread.
+ *
+ * Usage: Benchmark -lm=lmfile [-in=fixtures] [-stage=stage,...]
+ * [-warmup=2] [-iterations=5] [-time=1000] [-solver=bb] [-window=3]
+ * [-lm_threshold=-1] [-templates=8]
+ *
+ * By default trigrams are pruned (-window=3 -lm_threshold=-1) so that the
+ * longest fixtures are solved in seconds by the branch-and-bound solver.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class Benchmark {
+	static final String[] STAGES = { "parse", "initialize", "lm", "model",
+			"solve", "compress", "end-to-end" };
+
+	String fixtureFile = "bench/fixtures/sentences.txt";
+	String lmFile;
+	List<String> stages = Arrays.asList(STAGES);
+	int warmup = 2; // iterations before measuring
+	int iterations = 5; // measured iterations
+	long time = 1000; // ms per iteration
+	String solverName = "bb";
+	int window = 3;
+	double trigramThreshold = -1;
+	int templates = 8; // sentence lengths whose ILP template is kept
+
+	MyBerkeleyLm lm;
+	DocumentImporter importer = new DocumentImporter();
+	CompressionModel model;
+	LmScoreTable scores;
+	List<Sentence> fixtures = new ArrayList<Sentence>(); // parsed
+	com.sun.management.ThreadMXBean threads;
+
+	/**
+	 * a stage of the compression, run once per operation. Only op() is
+	 * measured; before() and after() prepare and clean up each operation.
+	 */
+	abstract class Stage {
+		void before(Sentence s) throws Exception {}
+		abstract void op(Sentence s) throws Exception;
+		void after(Sentence s) throws Exception {}
+	}
+
+	public static void main(String[] args) throws Exception {
+		Benchmark b = new Benchmark();
+		b.parseArgs(args);
+		b.initialize();
+		System.out.println("stage\ttokens\tops\tus/op\terror\tbytes/op");
+		for (String stage : b.stages) {
+			for (Sentence s : b.fixtures)
+				b.run(stage, b.getStage(stage), s);
+		}
+	}
+
+	void parseArgs(String[] args) {
+		for (String opt : args) {
+			if (opt.startsWith("-in=")) fixtureFile = opt.replace("-in=", "");
+			else if (opt.startsWith("-lm=")) lmFile = opt.replace("-lm=", "");
+			else if (opt.startsWith("-stage="))
+				stages = Arrays.asList(opt.replace("-stage=", "").split(","));
+			else if (opt.startsWith("-warmup="))
+				warmup = Integer.parseInt(opt.replace("-warmup=", ""));
+			else if (opt.startsWith("-iterations="))
+				iterations = Integer.parseInt(opt.replace("-iterations=", ""));
+			else if (opt.startsWith("-time="))
+				time = Long.parseLong(opt.replace("-time=", ""));
+			else if (opt.startsWith("-solver="))
+				solverName = opt.replace("-solver=", "");
+			else if (opt.startsWith("-window="))
+				window = Integer.parseInt(opt.replace("-window=", ""));
+			else if (opt.startsWith("-lm_threshold="))
+				trigramThreshold = Double.parseDouble(opt.replace("-lm_threshold=", ""));
+			else if (opt.startsWith("-templates="))
+				templates = Integer.parseInt(opt.replace("-templates=", ""));
+			else {
+				System.err.println("Invalid option: " + opt);
+				System.exit(2);
+			}
+		}
+		if (lmFile == null) {
+			System.err.println("Must specify language model file -lm=val");
+			System.exit(2);
+		}
+		for (String stage : stages) {
+			if (!Arrays.asList(STAGES).contains(stage)) {
+				System.err.println("Invalid stage: " + stage + ". Stages are "
+						+ Arrays.toString(STAGES));
+				System.exit(2);
+			}
+		}
+	}
+
+	/**
+	 * load the lm, the parser and the fixtures (one sentence per line)
+	 */
+	void initialize() throws IOException {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+			threads = (com.sun.management.ThreadMXBean) bean;
+			threads.setThreadAllocatedMemoryEnabled(true);
+		}
+		else System.err.println("Allocated memory is not supported by this JVM");
+
+		lm = new MyBerkeleyLm(lmFile);
+		scores = new LmScoreTable(lm);
+		model = new CompressionModel(lm, 1.0, "bench", 0.4, solverName);
+		model.setTrigramPruning(window, trigramThreshold);
+		model.setTemplateCapacity(templates);
+		model.suppressSolverOutput(true);
+
+		BufferedReader in = new BufferedReader(new FileReader(fixtureFile));
+		String line;
+		while ((line = in.readLine()) != null) {
+			if (line.trim().length() == 0) continue;
+			fixtures.add(newSentence(line, ""+fixtures.size()));
+		}
+		in.close();
+		importer.generateParses(fixtures);
+		for (Sentence s : fixtures)
+			topicWordData(s);
+		System.err.println(fixtures.size() + " fixtures loaded");
+	}
+
+	Sentence newSentence(String text, String id) {
+		Sentence s = new Sentence();
+		s.setText(text.trim());
+		s.setId(id);
+		return s;
+	}
+
+	/**
+	 * put the sentence in a document of its own and find its topic words,
+	 * dependencies and clauses, as SentenceCompressor does for each document
+	 */
+	void topicWordData(Sentence s) {
+		Document d = new Document();
+		d.setTitle("");
+		d.add(s);
+		s.setParent(d);
+		try {
+			d.getTopicWordData();
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * a copy of a parsed fixture, not initialized
+	 */
+	Sentence copy(Sentence s) {
+		Sentence c = newSentence(s.getText(), s.getId());
+		c.setParse(s.getParse());
+		c.setDepParse(s.getDepParse());
+		return c;
+	}
+
+	Stage getStage(String name) {
+		if (name.equals("parse")) {
+			return new Stage() {
+				Sentence raw;
+				void before(Sentence s) { raw = newSentence(s.getText(), s.getId()); }
+				void op(Sentence s) { importer.generateParses(Arrays.asList(raw)); }
+			};
+		}
+		if (name.equals("initialize")) {
+			return new Stage() {
+				Sentence parsed;
+				void before(Sentence s) { parsed = copy(s); }
+				void op(Sentence s) {
+					parsed.initialize();
+					topicWordData(parsed);
+				}
+			};
+		}
+		if (name.equals("lm")) {
+			return new Stage() {
+				double sum; // so the scores are used
+				void op(Sentence s) {
+					int n = s.length();
+					scores.setSentence(s.getTokens());
+					for (int i = 0; i < n - 1; i++) {
+						for (int j = i + 1; j < n; j++) {
+							sum += scores.end(i, j);
+							for (int k = j + 1; k < n; k++)
+								sum += scores.trigram(i, j, k);
+						}
+					}
+				}
+			};
+		}
+		if (name.equals("model")) {
+			return new Stage() {
+				void op(Sentence s) throws Exception { build(s); }
+				void after(Sentence s) throws Exception { model.clear(); }
+			};
+		}
+		if (name.equals("solve")) {
+			return new Stage() {
+				void before(Sentence s) throws Exception { build(s); }
+				void op(Sentence s) { model.solve(); }
+				void after(Sentence s) throws Exception { model.clear(); }
+			};
+		}
+		if (name.equals("compress")) {
+			return new Stage() {
+				void op(Sentence s) throws Exception { model.compress(s); }
+			};
+		}
+		return new Stage() {
+			Sentence raw;
+			void before(Sentence s) { raw = newSentence(s.getText(), s.getId()); }
+			void op(Sentence s) throws Exception {
+				importer.generateParses(Arrays.asList(raw));
+				topicWordData(raw);
+				model.compress(raw);
+			}
+		};
+	}
+
+	/**
+	 * build the ILP of the sentence, as CompressionModel.compress does
+	 */
+	void build(Sentence s) throws Exception {
+		model.initializeVariables(s);
+		model.createMaximization();
+		model.addConstraints();
+		model.addGlobalConstraints();
+	}
+
+	/**
+	 * run the warmup and measured iterations of a stage on a fixture, and
+	 * print the mean time and allocation per operation
+	 */
+	void run(String name, Stage stage, Sentence s) throws Exception {
+		long thread = Thread.currentThread().getId();
+		double[] usPerOp = new double[iterations];
+		long ops = 0, bytes = 0;
+		for (int it = -warmup; it < iterations; it++) {
+			long nanos = 0, allocated = 0;
+			int count = 0;
+			while (count == 0 || nanos < time * 1000000) {
+				stage.before(s);
+				long a = threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+				long t = System.nanoTime();
+				stage.op(s);
+				nanos += System.nanoTime() - t;
+				if (threads != null)
+					allocated += threads.getThreadAllocatedBytes(thread) - a;
+				stage.after(s);
+				count++;
+			}
+			if (it < 0) continue;
+			usPerOp[it] = nanos / 1000.0 / count;
+			ops += count;
+			bytes += allocated;
+		}
+		double mean = 0, variance = 0;
+		for (double u : usPerOp)
+			mean += u / iterations;
+		for (double u : usPerOp)
+			variance += (u - mean) * (u - mean) / Math.max(1, iterations - 1);
+		System.out.println(name + "\t" + (s.length() - 1) + "\t" + ops + "\t"
+				+ String.format("%.1f\t%.1f", mean, Math.sqrt(variance)) + "\t"
+				+ (threads == null ? "n/a" : "" + bytes / ops));
+	}
+}
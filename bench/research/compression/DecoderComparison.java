@@ -0,0 +1,148 @@
+package research.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import research.lib.Sentence;
+
+/**
+ * Compares the quality and latency of the approximate compressors (greedy
+ * search and beam search of several widths) with the ILP, on the same
+ * sentences and with the same settings. For each compressor it prints the
+ * number of sentences compressed, the mean and 95th percentile time per
+ * sentence, the fraction of compressions identical to the ILP's, the mean
+ * token F1 against the ILP's compression, and the mean objective lost (the
+ * ILP's objective minus its own, over the sentences both compressed).
+ *
+ * Usage: DecoderComparison -lm=lmfile [-in=sentences] [-beams=1,4,16,64]
+ * [-repeat=3] [-solver=bb] [-window=3] [-lm_threshold=-1]
+ *
+ * Each sentence is compressed once by every compressor to warm up, and then
+ * -repeat times to time it.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class DecoderComparison {
+	Benchmark bench = new Benchmark(); // loads the lm, ILP and sentences
+	int[] widths = { 1, 4, 16, 64 };
+	int repeat = 3;
+
+	/**
+	 * the compressions of one compressor, and their timings
+	 */
+	static class Result {
+		String name;
+		Compressor compressor;
+		List<List<Integer>> kept = new ArrayList<List<Integer>>(); // null if
+		// no compression was found
+		double[] ms;
+
+		Result(String name, Compressor compressor) {
+			this.name = name;
+			this.compressor = compressor;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		DecoderComparison d = new DecoderComparison();
+		d.parseArgs(args);
+		d.bench.initialize();
+		d.compare();
+	}
+
+	void parseArgs(String[] args) {
+		List<String> rest = new ArrayList<String>();
+		for (String opt : args) {
+			if (opt.startsWith("-beams=")) {
+				String[] w = opt.replace("-beams=", "").split(",");
+				widths = new int[w.length];
+				for (int i = 0; i < w.length; i++)
+					widths[i] = Integer.parseInt(w[i]);
+			}
+			else if (opt.startsWith("-repeat="))
+				repeat = Integer.parseInt(opt.replace("-repeat=", ""));
+			else rest.add(opt);
+		}
+		bench.parseArgs(rest.toArray(new String[rest.size()]));
+	}
+
+	/**
+	 * compress the sentences with the ILP and each width of beam, and print
+	 * the comparison
+	 */
+	void compare() throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		results.add(new Result("ilp", bench.model));
+		for (int w : widths) {
+			BeamCompressor beam = new BeamCompressor(bench.lm, bench.model.lambda,
+					bench.model.minCR, w);
+			beam.setTrigramPruning(bench.window, bench.trigramThreshold);
+			results.add(new Result(w == 1 ? "greedy" : "beam-" + w, beam));
+		}
+		List<Sentence> sentences = bench.fixtures;
+		for (Result r : results) {
+			r.ms = new double[sentences.size()];
+			for (int s = 0; s < sentences.size(); s++) {
+				r.kept.add(parseKept(r.compressor.compress(sentences.get(s))));
+				long start = System.nanoTime();
+				for (int i = 0; i < repeat; i++)
+					r.compressor.compress(sentences.get(s));
+				r.ms[s] = (System.nanoTime() - start) / 1e6 / repeat;
+			}
+		}
+
+		Result ilp = results.get(0);
+		System.out.println("decoder\tfound\tmean_ms\tp95_ms\tsame\tf1\tobjective_loss");
+		for (Result r : results) {
+			int found = 0, same = 0, both = 0;
+			double f1 = 0, loss = 0;
+			for (int s = 0; s < sentences.size(); s++) {
+				List<Integer> exact = ilp.kept.get(s), kept = r.kept.get(s);
+				if (kept == null) continue;
+				found++;
+				if (exact == null) continue;
+				both++;
+				if (kept.equals(exact)) same++;
+				f1 += f1(kept, exact);
+				bench.model.setSentence(sentences.get(s));
+				loss += bench.model.objective(exact) - bench.model.objective(kept);
+			}
+			double[] ms = r.ms.clone();
+			Arrays.sort(ms);
+			double mean = 0;
+			for (double m : ms)
+				mean += m / ms.length;
+			System.out.println(r.name + "\t" + found + "/" + sentences.size()
+					+ "\t" + String.format("%.2f\t%.2f\t%.2f\t%.3f\t%.3f", mean,
+							Metrics.percentile(ms, 95), (double) same / Math.max(1, both),
+							f1 / Math.max(1, both), loss / Math.max(1, both)));
+		}
+	}
+
+	/**
+	 * the indices of the kept tokens in an output line of a compressor
+	 * (length, compression, indices), or null if it is empty
+	 */
+	static List<Integer> parseKept(String output) {
+		String[] fields = output.split("\t");
+		if (fields.length < 3) return null;
+		List<Integer> kept = new ArrayList<Integer>();
+		for (String i : fields[2].trim().split(" "))
+			kept.add(Integer.parseInt(i));
+		return kept;
+	}
+
+	/**
+	 * token F1 of a compression against a reference compression
+	 */
+	static double f1(List<Integer> kept, List<Integer> reference) {
+		int common = 0;
+		for (int i : kept)
+			if (reference.contains(i)) common++;
+		if (common == 0) return 0;
+		double p = (double) common / kept.size(), r = (double) common / reference.size();
+		return 2 * p * r / (p + r);
+	}
+}
@@ -0,0 +1,334 @@
+package research.compression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import research.lib.GrammarDependency;
+import research.lib.MyBerkeleyLm;
+import research.lib.Sentence;
+import research.lib.Sentence.Clause;
+
+/**
+ * Finds an approximate compression by beam search, for when the ILP is too
+ * slow. The tokens are kept or deleted in turn, left to right, and each
+ * hypothesis (the tokens kept so far) is scored with the terms of the
+ * objective of CompressionModel: the lm terms of its trigrams and the weighted
+ * significance scores of its tokens. After each token only the best width
+ * hypotheses of each length and flags (as the states of the dynamic program)
+ * are kept, so that short hypotheses do not crowd out the ones that can still
+ * reach the target length; with a width of 1 this is a greedy search. The
+ * constraints of CompressionModel are hard filters: the token, length and
+ * n-gram constraints are handled as in ViterbiCompressor, and a hypothesis is
+ * dropped as soon as it violates a dependency or clause constraint whose
+ * tokens have all been decided. The search may miss the optimal compression,
+ * or find none if every hypothesis is dropped.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class BeamCompressor extends ViterbiCompressor {
+	int width; // hypotheses of each length and flags kept after each token
+	boolean[] mandatory; // token i must be in the compression
+	int[] remaining; // the largest length the tokens after i can add
+	int[] remainingFlags; // the flags the tokens after i can set
+	int lastMandatory; // the last token that must be kept (0 for none)
+	List<List<int[]>> rules = new ArrayList<List<int[]>>(); // the rules
+	// checked once token i is decided: if r[0] is kept, one of r[1..] is kept
+
+	/**
+	 * a partial compression: the tokens kept so far, the last two of them (0
+	 * for none) and its length, flags and score. Deleting a token leaves a
+	 * hypothesis unchanged, so it is never modified once created.
+	 */
+	static class Hypothesis {
+		long[] kept;
+		int prev, last, length, flags;
+		double score;
+
+		Hypothesis(long[] kept, int prev, int last, int length, int flags,
+				double score) {
+			this.kept = kept;
+			this.prev = prev;
+			this.last = last;
+			this.length = length;
+			this.flags = flags;
+			this.score = score;
+		}
+
+		boolean isKept(int i) {
+			return (kept[i >> 6] & (1L << i)) != 0;
+		}
+	}
+
+	public BeamCompressor(MyBerkeleyLm lm, double lambda, double minCR,
+			int width) {
+		super(lm, lambda, minCR);
+		this.width = width;
+	}
+
+	/**
+	 * the beam search applies every constraint
+	 */
+	public boolean canCompress(Sentence s) {
+		return true;
+	}
+
+	public String compress(Sentence s) throws Exception {
+		setSentence(s);
+		long start = System.nanoTime();
+		b = computeTargetLength();
+		initializeTokens();
+		initializeRules();
+		if (ngramConstraint)
+			lookUpTrigrams();
+		String output = decode();
+		stats.solveTime += System.nanoTime() - start;
+		stats.status = output.equals("") ? "Not found" : "Approximate";
+		return output;
+	}
+
+	/**
+	 * the tokens that must be kept, the length the rest of the sentence can
+	 * add, and the dependency and clause constraints of
+	 * CompressionModel.addGlobalConstraints as rules, each checked once all
+	 * of its tokens are decided
+	 */
+	void initializeRules() {
+		mandatory = new boolean[n];
+		for (int i = 1; i < n; i++)
+			mandatory[i] = sentence.isPRP(i) && !sentence.inParens(i);
+		rules.clear();
+		for (int i = 0; i < n; i++)
+			rules.add(new ArrayList<int[]>());
+		if (grammarConstraints && sentence.numDependencies() > 0) {
+			addGrammarRules();
+			propagate();
+		}
+		lastMandatory = 0;
+		for (int i = 1; i < n; i++)
+			if (mandatory[i]) lastMandatory = i;
+		remaining = new int[n];
+		remainingFlags = new int[n];
+		for (int i = n - 2; i >= 0; i--) {
+			remaining[i] = remaining[i + 1] + (forbidden[i + 1] ? 0 : weight[i + 1]);
+			remainingFlags[i] = remainingFlags[i + 1] | (forbidden[i + 1] ? 0 : flag[i + 1]);
+		}
+	}
+
+	/**
+	 * the dependency and clause constraints, as rules
+	 */
+	void addGrammarRules() {
+		int[] conjunctions = new int[n];
+		for (int d = 0; d < sentence.numDependencies(); d++) {
+			int gov = sentence.getGovernor(d), dep = sentence.getDependent(d);
+			switch (sentence.getDependencyKind(d)) {
+			case GrammarDependency.MOD:
+			case GrammarDependency.DET:
+				addRule(dep, gov);
+				break;
+			case GrammarDependency.POSS:
+			case GrammarDependency.NEG:
+			case GrammarDependency.SUBJ_OBJ:
+			case GrammarDependency.PP_SUB:
+				addRule(dep, gov);
+				addRule(gov, dep);
+				break;
+			case GrammarDependency.CC:
+				conjunctions[gov] = dep;
+				addRule(dep, gov);
+				break;
+			case GrammarDependency.CONJ:
+				addRule(conjunctions[gov], dep);
+				addRule(dep, conjunctions[gov]);
+				break;
+			}
+		}
+		for (Clause c : sentence.getClauses()) {
+			int head = c.getHead();
+			int[] constituents = c.getConstituents();
+			int[] rule = new int[constituents.length + 1];
+			rule[0] = head;
+			for (int j = 0; j < constituents.length; j++) {
+				addRule(constituents[j], head);
+				rule[j + 1] = constituents[j];
+			}
+			addRule(rule);
+		}
+	}
+
+	/**
+	 * find the tokens that must be kept, or cannot be, because of the rules
+	 * and the tokens already known to be. Otherwise a narrow beam may delete
+	 * a token before reaching a later one that requires it.
+	 */
+	void propagate() {
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (List<int[]> list : rules) {
+				for (int[] rule : list) {
+					int open = 0, last = -1; // tokens of r[1..] that may be kept
+					for (int j = 1; j < rule.length; j++) {
+						if (!forbidden[rule[j]]) {
+							open++;
+							last = rule[j];
+						}
+					}
+					if (open == 0 && !forbidden[rule[0]] && !mandatory[rule[0]]) {
+						forbidden[rule[0]] = true;
+						changed = true;
+					}
+					else if (open == 1 && mandatory[rule[0]] && !mandatory[last]) {
+						mandatory[last] = true;
+						changed = true;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * if token a is kept, so is token b. <s> (token 0) is not decided, so
+	 * rules on it are skipped.
+	 */
+	void addRule(int a, int b) {
+		addRule(new int[] { a, b });
+	}
+
+	void addRule(int[] rule) {
+		int last = 0;
+		for (int t : rule) {
+			if (t == 0) return;
+			last = Math.max(last, t);
+		}
+		rules.get(last).add(rule);
+	}
+
+	/**
+	 * returns true if h satisfies the rules checked once token i is decided
+	 */
+	boolean satisfies(Hypothesis h, int i) {
+		for (int[] rule : rules.get(i)) {
+			if (!h.isKept(rule[0])) continue;
+			boolean found = false;
+			for (int j = 1; j < rule.length && !found; j++)
+				found = h.isKept(rule[j]);
+			if (!found) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * the length and flags of a hypothesis, by which they are grouped (as the
+	 * states of the dynamic program): lengths above cap are equivalent
+	 */
+	int bucket(Hypothesis h) {
+		return Math.min(h.length, cap) * FLAGS + h.flags;
+	}
+
+	/**
+	 * returns true if a hypothesis of this length and flags can still reach
+	 * the minimum length and set the required flags with the tokens after i
+	 */
+	boolean canFinish(int length, int flags, int i) {
+		return length + remaining[i] >= lo
+				&& ((flags | remainingFlags[i]) & required) == required;
+	}
+
+	/**
+	 * returns true if h can delete token i and still keep the mandatory tokens
+	 * after it. Without a threshold, no token more than the window after the
+	 * last kept token can be kept.
+	 */
+	boolean canDelete(Hypothesis h, int i) {
+		if (mandatory[i]) return false;
+		if (window <= 0 || trigramThreshold != Double.POSITIVE_INFINITY
+				|| h.last == 0)
+			return true;
+		return i - h.last < window || lastMandatory <= i;
+	}
+
+	/**
+	 * run the beam search and return the best compression found
+	 *
+	 * @return
+	 */
+	String decode() {
+		List<Hypothesis> beam = new ArrayList<Hypothesis>();
+		beam.add(new Hypothesis(new long[(n + 63) >> 6], 0, 0, 0, 0, 0));
+		List<Hypothesis> next = new ArrayList<Hypothesis>();
+		Comparator<Hypothesis> order = new Comparator<Hypothesis>() {
+			public int compare(Hypothesis a, Hypothesis b) {
+				if (bucket(a) != bucket(b))
+					return bucket(a) - bucket(b);
+				return Double.compare(b.score, a.score);
+			}
+		};
+		int i;
+		for (i = 1; i < n && !beam.isEmpty(); i++) {
+			next.clear();
+			for (Hypothesis h : beam) {
+				// delete token i
+				if (canDelete(h, i) && canFinish(h.length, h.flags, i)
+						&& satisfies(h, i))
+					next.add(h);
+				// keep token i
+				if (forbidden[i]) continue;
+				if (h.last > 0 && !allowed(h.prev, h.last, i)) continue;
+				int length = h.length + weight[i];
+				if (length > hi || !canFinish(length, h.flags | flag[i], i))
+					continue;
+				double score = h.score + sig[i];
+				if (h.last == 0)
+					score += scores.start(i);
+				else if (h.prev > 0) // <s> is not scored as the first token of a trigram
+					score += scores.trigram(h.prev, h.last, i);
+				long[] kept = h.kept.clone();
+				kept[i >> 6] |= 1L << i;
+				Hypothesis k = new Hypothesis(kept, h.last, i, length,
+						h.flags | flag[i], score);
+				if (satisfies(k, i))
+					next.add(k);
+			}
+			// keep the best hypotheses of each length and flags
+			Collections.sort(next, order);
+			beam.clear();
+			int count = 0;
+			for (int h = 0; h < next.size(); h++) {
+				if (h > 0 && bucket(next.get(h)) != bucket(next.get(h - 1)))
+					count = 0;
+				if (count++ < width)
+					beam.add(next.get(h));
+			}
+		}
+
+		Hypothesis best = null;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (Hypothesis h : beam) {
+			if (h.last == 0 || h.length < lo || (h.flags & required) != required)
+				continue;
+			double score = h.score + scores.end(h.prev, h.last);
+			if (score > bestScore) {
+				bestScore = score;
+				best = h;
+			}
+		}
+		if (best == null) {
+			if (debug)
+				System.err.println("No compression found by the beam search"
+						+ (beam.isEmpty() ? " (no hypotheses after token "
+								+ (i - 1) + ")" : ""));
+			compression = "";
+			return "";
+		}
+		LinkedList<Integer> kept = new LinkedList<Integer>();
+		for (int t = 1; t < n; t++)
+			if (best.isKept(t))
+				kept.add(t);
+		return formatCompression(kept);
+	}
+}
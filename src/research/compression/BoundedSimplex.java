@@ -0,0 +1,552 @@
+package research.compression;
+
+import java.util.Arrays;
+
+/**
+ * Revised primal simplex for LPs of the form min c'x s.t. Ax = b, l <= x <= u,
+ * with A stored by column. Nonbasic variables sit at one of their bounds, so
+ * the 0/1 bounds of the compression variables never become rows, and
+ * branch-and-bound only has to change l and u between solves. The basis
+ * inverse is kept explicitly (the models have a few hundred rows) and
+ * recomputed every REFACTOR pivots. Phase 1 starts from a basis of
+ * artificial variables; after a solve, resolve() warm-starts the dual simplex
+ * from the previous optimal basis, which stays dual feasible when only bounds
+ * change. A basis saved with saveBasis() stays primal feasible when only the
+ * costs change, so solve(lower, upper, cost) warm-starts the primal simplex
+ * from it. Each solve stops at maxIterations pivots, or at the deadline.
+ *
+ * @author Courtney Napoles
+ *
+ */
+class BoundedSimplex {
+	static final int OPTIMAL = 0, INFEASIBLE = 1, UNBOUNDED = 2,
+			ITERATION_LIMIT = 3, CUTOFF = 4, TIME_LIMIT = 5;
+	static final double INF = Double.POSITIVE_INFINITY;
+	static final double FEAS_TOL = 1e-7; // phase 1 objective tolerance
+	static final double OPT_TOL = 1e-9; // reduced cost tolerance
+	static final double PIV_TOL = 1e-9; // smallest acceptable pivot
+	static final int REFACTOR = 64; // pivots between refactorizations
+	static final int MAX_DEGENERATE = 50; // stalled pivots before Bland's rule
+	static final int CLOCK_PIVOTS = 64; // pivots between checks of the deadline
+
+	int m, n; // rows, structural columns (artificials are n..n+m-1)
+	int[] colStart, rowIdx; // A by column
+	double[] vals, b, cost;
+
+	double[] lb, ub, x; // bounds and values of all n+m variables
+	double[] artSign; // artificial i is artSign[i] * e_i
+	int[] basis; // variable basic in row i
+	int[] pos; // row of a basic variable, -1 if nonbasic
+	double[][] binv; // inverse of the basis matrix, by column
+	double objective;
+	int iterations;
+	int maxIterations = 1000000;
+	long deadline = Long.MAX_VALUE; // System.currentTimeMillis() to stop at
+	boolean warm = false; // is the basis optimal for some bounds?
+	int[] savedBasis; // basis and values saved by saveBasis()
+	double[] savedX;
+
+	/**
+	 * @param m
+	 *            number of rows
+	 * @param n
+	 *            number of columns
+	 * @param colStart
+	 *            column j is stored at colStart[j]..colStart[j+1]-1
+	 * @param rowIdx
+	 * @param vals
+	 * @param b
+	 *            right hand side
+	 * @param cost
+	 *            objective coefficients (minimized)
+	 */
+	BoundedSimplex(int m, int n, int[] colStart, int[] rowIdx, double[] vals,
+			double[] b, double[] cost) {
+		this.m = m;
+		this.n = n;
+		this.colStart = colStart;
+		this.rowIdx = rowIdx;
+		this.vals = vals;
+		this.b = b;
+		this.cost = cost;
+		lb = new double[n + m];
+		ub = new double[n + m];
+		x = new double[n + m];
+		artSign = new double[m];
+		basis = new int[m];
+		pos = new int[n + m];
+		binv = new double[m][m];
+	}
+
+	/**
+	 * solve the LP with the given bounds on the structural columns
+	 *
+	 * @param lower
+	 * @param upper
+	 * @return status
+	 */
+	int solve(double[] lower, double[] upper) {
+		System.arraycopy(lower, 0, lb, 0, n);
+		System.arraycopy(upper, 0, ub, 0, n);
+		iterations = 0;
+		warm = false;
+
+		// start with all structural columns at a finite bound and a basis of
+		// artificials covering the residual
+		double[] r = b.clone();
+		for (int j = 0; j < n; j++) {
+			x[j] = lb[j] > -INF ? lb[j] : (ub[j] < INF ? ub[j] : 0);
+			pos[j] = -1;
+			if (x[j] != 0)
+				for (int k = colStart[j]; k < colStart[j + 1]; k++)
+					r[rowIdx[k]] -= vals[k] * x[j];
+		}
+		for (int i = 0; i < m; i++) {
+			artSign[i] = r[i] >= 0 ? 1 : -1;
+			lb[n + i] = 0;
+			ub[n + i] = INF;
+			x[n + i] = Math.abs(r[i]);
+			basis[i] = n + i;
+			pos[n + i] = i;
+			Arrays.fill(binv[i], 0);
+			binv[i][i] = artSign[i];
+		}
+
+		// phase 1: minimize the sum of the artificials
+		double[] phase1 = new double[n + m];
+		Arrays.fill(phase1, n, n + m, 1.0);
+		int status = iterate(phase1);
+		if (status != OPTIMAL)
+			return status;
+		if (value(phase1) > FEAS_TOL)
+			return INFEASIBLE;
+
+		// phase 2: artificials are fixed at 0
+		for (int i = 0; i < m; i++)
+			ub[n + i] = 0;
+		double[] phase2 = Arrays.copyOf(cost, n + m);
+		status = iterate(phase2);
+		objective = value(phase2);
+		warm = status == OPTIMAL;
+		return status;
+	}
+
+	/**
+	 * solve the LP with new bounds on the structural columns, starting from
+	 * the last optimal basis. Stops early (returning CUTOFF) once the objective
+	 * exceeds cutoff, since the dual simplex objective only increases.
+	 *
+	 * @param lower
+	 * @param upper
+	 * @param cutoff
+	 * @return status
+	 */
+	int resolve(double[] lower, double[] upper, double cutoff) {
+		if (!warm)
+			return solve(lower, upper);
+		System.arraycopy(lower, 0, lb, 0, n);
+		System.arraycopy(upper, 0, ub, 0, n);
+		iterations = 0;
+		warm = false;
+		double[] c = Arrays.copyOf(cost, n + m);
+
+		// move each nonbasic variable to the bound that keeps its reduced cost
+		// dual feasible
+		double[] y = duals(c);
+		for (int j = 0; j < n; j++) {
+			if (pos[j] >= 0) continue;
+			if (lb[j] == ub[j] || ub[j] == INF)
+				x[j] = lb[j];
+			else
+				x[j] = c[j] - dot(y, j) >= 0 ? lb[j] : ub[j];
+		}
+		refactor();
+
+		int status = dualIterate(c, cutoff);
+		if (status == OPTIMAL)
+			status = iterate(c); // clean up any remaining dual infeasibility
+		objective = value(c);
+		warm = status == OPTIMAL || status == CUTOFF;
+		return status;
+	}
+
+	/**
+	 * save the current basis, e.g. the optimal basis of the root LP
+	 */
+	void saveBasis() {
+		savedBasis = basis.clone();
+		savedX = x.clone();
+	}
+
+	/**
+	 * solve the LP with a new cost vector and the bounds of the saved basis,
+	 * starting from the saved basis
+	 *
+	 * @param lower
+	 * @param upper
+	 * @param cost
+	 * @return status
+	 */
+	int solve(double[] lower, double[] upper, double[] cost) {
+		this.cost = cost;
+		if (savedBasis == null)
+			return solve(lower, upper);
+		System.arraycopy(lower, 0, lb, 0, n);
+		System.arraycopy(upper, 0, ub, 0, n);
+		// artificials are fixed at 0, as in phase 2 (an infeasible phase 1
+		// since the basis was saved leaves them free)
+		Arrays.fill(ub, n, n + m, 0);
+		iterations = 0;
+		System.arraycopy(savedBasis, 0, basis, 0, m);
+		System.arraycopy(savedX, 0, x, 0, n + m);
+		Arrays.fill(pos, -1);
+		for (int i = 0; i < m; i++)
+			pos[basis[i]] = i;
+		refactor();
+
+		double[] c = Arrays.copyOf(cost, n + m);
+		int status = iterate(c);
+		objective = value(c);
+		warm = status == OPTIMAL;
+		return status;
+	}
+
+	double value(double[] c) {
+		double d = 0;
+		for (int j = 0; j < n + m; j++)
+			if (c[j] != 0)
+				d += c[j] * x[j];
+		return d;
+	}
+
+	/**
+	 * run simplex iterations with cost vector c until optimal
+	 */
+	int iterate(double[] c) {
+		double[] y = new double[m];
+		double[] alpha = new double[m];
+		int sinceRefactor = 0, degenerate = 0;
+		boolean bland = false;
+		// the objective, and its value when Bland's rule was switched on
+		double value = value(c), stall = value;
+		while (true) {
+			int status = checkLimits();
+			if (status >= 0)
+				return status;
+			if (sinceRefactor >= REFACTOR) {
+				refactor();
+				sinceRefactor = 0;
+			}
+
+			duals(c, y);
+
+			// pricing: Dantzig's rule, or Bland's rule from when the objective
+			// stalls until it improves
+			if (!bland && degenerate >= MAX_DEGENERATE) {
+				bland = true;
+				stall = value;
+			}
+			int q = -1;
+			double best = 0;
+			for (int j = 0; j < n + m; j++) {
+				if (pos[j] >= 0 || lb[j] == ub[j]) continue;
+				double d = c[j] - dot(y, j);
+				boolean atLower = atLower(j);
+				if ((atLower && d < -OPT_TOL) || (!atLower && d > OPT_TOL)) {
+					if (Math.abs(d) > best) {
+						best = Math.abs(d);
+						q = j;
+					}
+					if (bland) break;
+				}
+			}
+			if (q < 0)
+				return OPTIMAL;
+			double dir = atLower(q) ? 1 : -1;
+
+			// alpha = B^-1 A_q
+			column(q, alpha);
+
+			// ratio test (ties go to the largest pivot)
+			double step = ub[q] - lb[q];
+			int leave = -1;
+			for (int i = 0; i < m; i++) {
+				double delta = -dir * alpha[i];
+				if (Math.abs(delta) <= PIV_TOL) continue;
+				int v = basis[i];
+				double ti;
+				if (delta < 0)
+					ti = (x[v] - lb[v]) / -delta;
+				else if (ub[v] < INF)
+					ti = (ub[v] - x[v]) / delta;
+				else continue;
+				if (ti < 0) ti = 0;
+				// ties go to the smallest index under Bland's rule, so that
+				// degenerate pivots cannot cycle
+				if (ti < step - 1e-12 || (leave >= 0 && ti <= step + 1e-12
+						&& (bland ? v < basis[leave] : Math.abs(alpha[i]) > Math
+								.abs(alpha[leave])))) {
+					step = ti;
+					leave = i;
+				}
+			}
+			if (step == INF)
+				return UNBOUNDED;
+
+			for (int i = 0; i < m; i++)
+				x[basis[i]] -= step * dir * alpha[i];
+			x[q] += step * dir;
+			if (leave < 0)
+				x[q] = dir > 0 ? ub[q] : lb[q]; // bound flip
+
+			// a pivot that does not improve the objective (within the
+			// tolerance) may be part of a cycle
+			double previous = value;
+			value = value(c);
+			if (value < previous - OPT_TOL * (1 + Math.abs(previous)))
+				degenerate = 0;
+			else degenerate++;
+			if (bland && value < stall - OPT_TOL * (1 + Math.abs(stall))) {
+				bland = false;
+				degenerate = 0;
+			}
+			if (leave < 0)
+				continue;
+			int v = basis[leave];
+			x[v] = -dir * alpha[leave] > 0 ? ub[v] : lb[v];
+			pos[v] = -1;
+			basis[leave] = q;
+			pos[q] = leave;
+			pivot(leave, alpha);
+			sinceRefactor++;
+		}
+	}
+
+	/**
+	 * run dual simplex iterations with cost vector c, starting from a dual
+	 * feasible basis, until the basic variables are within their bounds
+	 */
+	int dualIterate(double[] c, double cutoff) {
+		double[] y = new double[m];
+		double[] alpha = new double[m];
+		int sinceRefactor = 0;
+		while (true) {
+			int status = checkLimits();
+			if (status >= 0)
+				return status;
+			if (sinceRefactor >= REFACTOR) {
+				refactor();
+				sinceRefactor = 0;
+			}
+			if (value(c) > cutoff)
+				return CUTOFF;
+
+			// leaving variable: the most infeasible basic variable
+			int r = -1;
+			double worst = FEAS_TOL;
+			for (int i = 0; i < m; i++) {
+				int v = basis[i];
+				double inf = Math.max(lb[v] - x[v], x[v] - ub[v]);
+				if (inf > worst) {
+					worst = inf;
+					r = i;
+				}
+			}
+			if (r < 0)
+				return OPTIMAL;
+			int leaving = basis[r];
+			boolean increase = x[leaving] < lb[leaving];
+
+			// entering variable: dual ratio test over row r of B^-1 A
+			duals(c, y);
+			double[] rho = new double[m];
+			for (int k = 0; k < m; k++)
+				rho[k] = binv[k][r];
+			int q = -1;
+			double best = INF, bestAlpha = 0;
+			for (int j = 0; j < n + m; j++) {
+				if (pos[j] >= 0 || lb[j] == ub[j]) continue;
+				double a = dot(rho, j);
+				if (Math.abs(a) <= PIV_TOL) continue;
+				boolean atLower = atLower(j);
+				if (increase ? (atLower ? a >= 0 : a <= 0)
+						: (atLower ? a <= 0 : a >= 0))
+					continue;
+				double ratio = Math.abs((c[j] - dot(y, j)) / a);
+				if (ratio < best - 1e-12 || (ratio <= best + 1e-12
+						&& Math.abs(a) > Math.abs(bestAlpha))) {
+					best = ratio;
+					bestAlpha = a;
+					q = j;
+				}
+			}
+			if (q < 0)
+				return INFEASIBLE;
+
+			// move the leaving variable to its violated bound
+			column(q, alpha);
+			double bound = increase ? lb[leaving] : ub[leaving];
+			double step = (x[leaving] - bound) / alpha[r];
+			for (int i = 0; i < m; i++)
+				x[basis[i]] -= step * alpha[i];
+			x[q] += step;
+			x[leaving] = bound;
+			pos[leaving] = -1;
+			basis[r] = q;
+			pos[q] = r;
+			pivot(r, alpha);
+			sinceRefactor++;
+		}
+	}
+
+	/**
+	 * count a pivot, and return ITERATION_LIMIT or TIME_LIMIT if the solve
+	 * must stop, -1 otherwise
+	 */
+	int checkLimits() {
+		if (iterations++ > maxIterations)
+			return ITERATION_LIMIT;
+		if (iterations % CLOCK_PIVOTS == 0
+				&& System.currentTimeMillis() > deadline)
+			return TIME_LIMIT;
+		return -1;
+	}
+
+	/**
+	 * returns true if nonbasic variable j is at its lower bound (the nearer
+	 * one, so rounding in x cannot make it look as if it were at neither)
+	 */
+	boolean atLower(int j) {
+		return x[j] - lb[j] <= ub[j] - x[j];
+	}
+
+	/**
+	 * duals y = c_B' B^-1
+	 */
+	double[] duals(double[] c) {
+		double[] y = new double[m];
+		duals(c, y);
+		return y;
+	}
+
+	void duals(double[] c, double[] y) {
+		double[] cb = new double[m];
+		for (int i = 0; i < m; i++)
+			cb[i] = c[basis[i]];
+		for (int k = 0; k < m; k++) {
+			double[] col = binv[k];
+			double d = 0;
+			for (int i = 0; i < m; i++)
+				d += cb[i] * col[i];
+			y[k] = d;
+		}
+	}
+
+	/**
+	 * y' A_j
+	 */
+	double dot(double[] y, int j) {
+		if (j >= n)
+			return y[j - n] * artSign[j - n];
+		double d = 0;
+		for (int k = colStart[j]; k < colStart[j + 1]; k++)
+			d += y[rowIdx[k]] * vals[k];
+		return d;
+	}
+
+	/**
+	 * alpha = B^-1 A_j
+	 */
+	void column(int j, double[] alpha) {
+		if (j >= n) {
+			double[] col = binv[j - n];
+			for (int i = 0; i < m; i++)
+				alpha[i] = col[i] * artSign[j - n];
+			return;
+		}
+		Arrays.fill(alpha, 0);
+		for (int k = colStart[j]; k < colStart[j + 1]; k++) {
+			double[] col = binv[rowIdx[k]];
+			double v = vals[k];
+			for (int i = 0; i < m; i++)
+				alpha[i] += col[i] * v;
+		}
+	}
+
+	/**
+	 * update the basis inverse after the variable in row r was replaced
+	 */
+	void pivot(int r, double[] alpha) {
+		double p = alpha[r];
+		for (int k = 0; k < m; k++) {
+			double[] col = binv[k];
+			double v = col[r] / p;
+			if (v == 0) continue;
+			for (int i = 0; i < m; i++)
+				col[i] -= alpha[i] * v;
+			col[r] = v;
+		}
+	}
+
+	/**
+	 * recompute the basis inverse from scratch (Gauss-Jordan with partial
+	 * pivoting) and the values of the basic variables
+	 */
+	void refactor() {
+		double[][] a = new double[m][2 * m];
+		for (int i = 0; i < m; i++) {
+			int j = basis[i];
+			if (j >= n)
+				a[j - n][i] = artSign[j - n];
+			else
+				for (int k = colStart[j]; k < colStart[j + 1]; k++)
+					a[rowIdx[k]][i] = vals[k];
+			a[i][m + i] = 1;
+		}
+		for (int col = 0; col < m; col++) {
+			int p = col;
+			for (int i = col + 1; i < m; i++)
+				if (Math.abs(a[i][col]) > Math.abs(a[p][col]))
+					p = i;
+			if (Math.abs(a[p][col]) < 1e-12)
+				return; // keep the updated inverse
+			double[] tmp = a[p]; a[p] = a[col]; a[col] = tmp;
+			double d = a[col][col];
+			for (int k = col; k < 2 * m; k++)
+				a[col][k] /= d;
+			for (int i = 0; i < m; i++) {
+				if (i == col || a[i][col] == 0) continue;
+				double f = a[i][col];
+				for (int k = col; k < 2 * m; k++)
+					a[i][k] -= f * a[col][k];
+			}
+		}
+		for (int i = 0; i < m; i++)
+			for (int k = 0; k < m; k++)
+				binv[k][i] = a[i][m + k];
+
+		// x_B = B^-1 (b - N x_N)
+		double[] r = b.clone();
+		for (int j = 0; j < n + m; j++) {
+			if (pos[j] >= 0 || x[j] == 0) continue;
+			if (j >= n)
+				r[j - n] -= artSign[j - n] * x[j];
+			else
+				for (int k = colStart[j]; k < colStart[j + 1]; k++)
+					r[rowIdx[k]] -= vals[k] * x[j];
+		}
+		double[] xb = new double[m];
+		for (int k = 0; k < m; k++) {
+			if (r[k] == 0) continue;
+			double[] col = binv[k];
+			for (int i = 0; i < m; i++)
+				xb[i] += col[i] * r[k];
+		}
+		for (int i = 0; i < m; i++)
+			x[basis[i]] = xb[i];
+	}
+
+	double getValue(int j) { return x[j]; }
+
+	double getObjective() { return objective; }
+}
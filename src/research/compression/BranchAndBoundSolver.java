@@ -0,0 +1,388 @@
+package research.compression;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * A pure-Java solver for the compression ILPs: LP relaxations are solved with
+ * a bounded-variable simplex (BoundedSimplex) and integrality is enforced by
+ * depth-first branch-and-bound on the most fractional variable. The flow
+ * constraints of the model make most LP relaxations integral or nearly so, so
+ * the search is small, and each node warm-starts from the previous basis.
+ * When only the objective changes between solves (as when sweeping lambda),
+ * the LP is kept, the root warm-starts from the previous root basis, and a
+ * solution given to setStart() is the first incumbent. The node limit is
+ * checked between nodes, and the time limit also between the pivots of each
+ * LP, including the root; when one is reached, the search stops with the best
+ * solution found so far.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class BranchAndBoundSolver extends CompressionSolver {
+	static final double INT_TOL = 1e-6; // integrality tolerance
+
+	ArrayList<String> names = new ArrayList<String>();
+	ArrayList<int[]> rowVars = new ArrayList<int[]>();
+	ArrayList<double[]> rowCoefs = new ArrayList<double[]>();
+	ArrayList<Sense> rowSense = new ArrayList<Sense>();
+	ArrayList<String> rowNames = new ArrayList<String>();
+	double[] rhs = new double[16];
+	double[] objective = new double[16];
+
+	double[] incumbent; // best integer solution
+	double incumbentValue;
+	double[] start; // initial incumbent, if any
+	BoundedSimplex lp; // LP of the last solve, while the rows are unchanged
+	boolean optimal = false;
+	String status = "Unknown";
+	int nodes;
+	double timeLimit = 0; // seconds per solve (0 = none)
+	int nodeLimit = 0; // nodes per solve (0 = none)
+	double gap = 0; // relative gap at which a node is pruned
+	PrintStream out = System.err;
+
+	/**
+	 * a node of the search tree: a variable fixed to a value, plus the fixings
+	 * of its ancestors
+	 */
+	static class Node {
+		Node parent;
+		int var;
+		double value;
+
+		Node(Node parent, int var, double value) {
+			this.parent = parent;
+			this.var = var;
+			this.value = value;
+		}
+	}
+
+	public int boolVar(String name) {
+		lp = null;
+		names.add(name);
+		return names.size() - 1;
+	}
+
+	public void addConstraint(LinearExpr expr, Sense sense, double rhs,
+			String name) {
+		lp = null;
+		int r = rowVars.size();
+		rowVars.add(Arrays.copyOf(expr.vars, expr.size()));
+		rowCoefs.add(Arrays.copyOf(expr.coefs, expr.size()));
+		rowSense.add(sense);
+		rowNames.add(name);
+		if (r == this.rhs.length)
+			this.rhs = Arrays.copyOf(this.rhs, r * 2);
+		this.rhs[r] = rhs;
+	}
+
+	public void setName(int var, String name) {
+		names.set(var, name);
+	}
+
+	public void setRowName(int row, String name) {
+		rowNames.set(row, name);
+	}
+
+	public void maximize(LinearExpr expr) {
+		objective = new double[names.size()];
+		for (int i = 0; i < expr.size(); i++)
+			objective[expr.getVar(i)] += expr.getCoef(i);
+	}
+
+	public void setTimeLimit(double seconds) {
+		timeLimit = seconds;
+	}
+
+	public void setNodeLimit(int nodes) {
+		nodeLimit = nodes;
+	}
+
+	public void setGap(double gap) {
+		this.gap = gap;
+	}
+
+	public void setStart(double[] values) {
+		start = values.clone();
+	}
+
+	public boolean solve() {
+		long startTime = System.currentTimeMillis();
+		long deadline = timeLimit > 0 ? startTime + (long) (timeLimit * 1000)
+				: Long.MAX_VALUE;
+		int nVars = names.size(), m = rowVars.size();
+		if (objective.length < nVars)
+			objective = Arrays.copyOf(objective, nVars);
+
+		// one slack column per inequality, after the structural columns
+		int nSlacks = 0;
+		for (Sense s : rowSense)
+			if (s != Sense.EQ) nSlacks++;
+		int n = nVars + nSlacks;
+		double[] cost = new double[n];
+		for (int j = 0; j < nVars; j++)
+			cost[j] = -objective[j];
+		boolean reuse = lp != null;
+		if (!reuse)
+			lp = createLp(nVars, n, m, cost);
+		double[] lower = new double[n];
+		double[] upper = new double[n];
+
+		lp.deadline = deadline;
+		incumbent = null;
+		incumbentValue = Double.NEGATIVE_INFINITY;
+		if (start != null) {
+			incumbent = start;
+			incumbentValue = 0;
+			for (int j = 0; j < nVars; j++)
+				incumbentValue += objective[j] * start[j];
+			start = null;
+		}
+		optimal = false;
+		nodes = 0;
+		String limit = null;
+		LinkedList<Node> stack = new LinkedList<Node>();
+		stack.push(new Node(null, -1, 0));
+		while (!stack.isEmpty()) {
+			if (nodeLimit > 0 && nodes >= nodeLimit)
+				limit = "node limit";
+			else if (System.currentTimeMillis() > deadline)
+				limit = "time limit";
+			if (limit != null) break;
+			Node node = stack.pop();
+			nodes++;
+			Arrays.fill(lower, 0);
+			Arrays.fill(upper, 0, nVars, 1);
+			Arrays.fill(upper, nVars, n, Double.POSITIVE_INFINITY);
+			for (Node f = node; f.var >= 0; f = f.parent) {
+				lower[f.var] = f.value;
+				upper[f.var] = f.value;
+			}
+			int status;
+			if (nodes == 1)
+				status = reuse ? lp.solve(lower, upper, cost) : lp.solve(lower, upper);
+			else status = lp.resolve(lower, upper, -cutoff());
+			// a warm start may stall where a cold start does not
+			if (status == BoundedSimplex.ITERATION_LIMIT && (nodes > 1 || reuse))
+				status = lp.solve(lower, upper);
+			if (status == BoundedSimplex.ITERATION_LIMIT) {
+				// the node is neither solved nor pruned, so the search is not
+				// complete
+				limit = "iteration limit";
+				break;
+			}
+			if (status == BoundedSimplex.TIME_LIMIT) {
+				limit = "time limit";
+				break;
+			}
+			if (status != BoundedSimplex.OPTIMAL)
+				continue;
+			if (nodes == 1)
+				lp.saveBasis();
+			double bound = -lp.getObjective();
+			if (bound <= cutoff())
+				continue;
+
+			// branch on the most fractional variable
+			int branch = -1;
+			double fraction = INT_TOL;
+			for (int j = 0; j < nVars; j++) {
+				double v = lp.getValue(j);
+				if (Math.abs(v - Math.rint(v)) > fraction) {
+					fraction = Math.abs(v - Math.rint(v));
+					branch = j;
+				}
+			}
+			if (branch < 0) {
+				incumbentValue = bound;
+				incumbent = new double[nVars];
+				for (int j = 0; j < nVars; j++)
+					incumbent[j] = Math.rint(lp.getValue(j));
+				continue;
+			}
+			// explore the nearest value first
+			double near = Math.rint(lp.getValue(branch));
+			stack.push(new Node(node, branch, 1 - near));
+			stack.push(new Node(node, branch, near));
+		}
+		optimal = incumbent != null && limit == null;
+		if (limit != null)
+			this.status = (incumbent != null ? "Feasible" : "Unknown") + " ("
+					+ limit + ")";
+		else this.status = optimal ? "Optimal" : "Infeasible";
+		if (out != null)
+			out.println("Branch and bound: " + nVars + " variables, " + m
+					+ " constraints, " + nodes + " nodes, objective "
+					+ incumbentValue + ", "
+					+ (System.currentTimeMillis() - startTime) + " ms, "
+					+ this.status);
+		return incumbent != null;
+	}
+
+	/**
+	 * nodes whose bound is at most this cannot improve the incumbent by more
+	 * than the gap
+	 */
+	double cutoff() {
+		if (incumbent == null)
+			return Double.NEGATIVE_INFINITY;
+		return incumbentValue + Math.max(1e-9, gap * Math.abs(incumbentValue));
+	}
+
+	/**
+	 * the LP relaxation of the model, with the given number of structural
+	 * columns (variables and then slacks) and rows
+	 */
+	BoundedSimplex createLp(int nVars, int n, int m, double[] cost) {
+		// transpose the rows into columns, merging repeated variables
+		int[] count = new int[n + 1];
+		int[] mark = new int[nVars];
+		Arrays.fill(mark, -1);
+		for (int r = 0; r < m; r++) {
+			for (int v : rowVars.get(r)) {
+				if (mark[v] == r) continue;
+				mark[v] = r;
+				count[v + 1]++;
+			}
+		}
+		int slack = nVars;
+		for (int r = 0; r < m; r++)
+			if (rowSense.get(r) != Sense.EQ)
+				count[++slack]++;
+		int[] colStart = new int[n + 1];
+		for (int j = 0; j < n; j++)
+			colStart[j + 1] = colStart[j] + count[j + 1];
+		int[] fill = Arrays.copyOf(colStart, n);
+		int[] rowIdx = new int[colStart[n]];
+		double[] vals = new double[colStart[n]];
+		int[] where = new int[nVars]; // position of v in its column for row r
+		Arrays.fill(mark, -1);
+		slack = nVars;
+		for (int r = 0; r < m; r++) {
+			int[] vars = rowVars.get(r);
+			double[] coefs = rowCoefs.get(r);
+			for (int i = 0; i < vars.length; i++) {
+				int v = vars[i];
+				if (mark[v] == r) {
+					vals[where[v]] += coefs[i];
+					continue;
+				}
+				mark[v] = r;
+				where[v] = fill[v]++;
+				rowIdx[where[v]] = r;
+				vals[where[v]] = coefs[i];
+			}
+			Sense s = rowSense.get(r);
+			if (s != Sense.EQ) {
+				rowIdx[fill[slack]] = r;
+				vals[fill[slack]++] = s == Sense.GE ? -1 : 1;
+				slack++;
+			}
+		}
+
+		return new BoundedSimplex(m, n, colStart, rowIdx, vals,
+				Arrays.copyOf(rhs, m), cost);
+	}
+
+	public double getValue(int var) throws SolverException {
+		if (incumbent == null)
+			throw new SolverException("No solution");
+		return incumbent[var];
+	}
+
+	public boolean isOptimal() { return optimal; }
+
+	public String getStatus() { return status; }
+
+	public int getNumNodes() { return nodes; }
+
+	public void clear() {
+		names.clear();
+		rowVars.clear();
+		rowCoefs.clear();
+		rowSense.clear();
+		rowNames.clear();
+		objective = new double[16];
+		lp = null;
+		start = null;
+		incumbent = null;
+		optimal = false;
+	}
+
+	public void truncate(int vars, int rows) {
+		names.subList(vars, names.size()).clear();
+		rowVars.subList(rows, rowVars.size()).clear();
+		rowCoefs.subList(rows, rowCoefs.size()).clear();
+		rowSense.subList(rows, rowSense.size()).clear();
+		rowNames.subList(rows, rowNames.size()).clear();
+		objective = new double[16];
+		lp = null;
+		start = null;
+		incumbent = null;
+		optimal = false;
+	}
+
+	/**
+	 * write the model in CPLEX LP format
+	 */
+	public void exportModel(String file) throws SolverException {
+		PrintWriter pw;
+		try {
+			pw = new PrintWriter(file);
+		} catch (FileNotFoundException e) {
+			throw new SolverException("Error exporting model to " + file, e);
+		}
+		pw.println("Maximize");
+		StringBuilder sb = new StringBuilder(" obj:");
+		for (int j = 0; j < objective.length && j < names.size(); j++)
+			if (objective[j] != 0)
+				appendTerm(sb, objective[j], j);
+		pw.println(sb);
+		pw.println("Subject To");
+		for (int r = 0; r < rowVars.size(); r++) {
+			sb = new StringBuilder(" c" + (r + 1) + ":");
+			int[] vars = rowVars.get(r);
+			double[] coefs = rowCoefs.get(r);
+			for (int i = 0; i < vars.length; i++)
+				appendTerm(sb, coefs[i], vars[i]);
+			Sense s = rowSense.get(r);
+			sb.append(s == Sense.EQ ? " = " : s == Sense.GE ? " >= " : " <= ");
+			sb.append(rhs[r]);
+			if (rowNames.get(r) != null)
+				sb.append(" \\ " + rowNames.get(r));
+			pw.println(sb);
+		}
+		pw.println("Binaries");
+		for (int j = 0; j < names.size(); j++)
+			pw.println(" " + name(j));
+		pw.println("End");
+		pw.close();
+	}
+
+	void appendTerm(StringBuilder sb, double coef, int var) {
+		sb.append(coef < 0 ? " - " : " + ");
+		sb.append(Math.abs(coef));
+		sb.append(" ");
+		sb.append(name(var));
+	}
+
+	/**
+	 * the name of a variable, or x1, x2, ... if it has none
+	 */
+	String name(int var) {
+		return names.get(var) == null ? "x" + (var + 1) : names.get(var);
+	}
+
+	public void setOut(PrintStream out) {
+		this.out = out;
+	}
+
+	public int getNumVariables() { return names.size(); }
+
+	public int getNumConstraints() { return rowVars.size(); }
+}
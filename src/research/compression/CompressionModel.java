@@ -1,58 +1,79 @@
 package research.compression;
 
-import java.io.*;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import research.lib.GrammarDependency;
 import research.lib.MyBerkeleyLm;
 import research.lib.Sentence;
 import research.lib.Sentence.Clause;
 
-import ilog.concert.*;
-import ilog.cplex.IloCplex;
-
 /**
  * This creates and solves an ILP model for compressing sentences, following
  * Clarke and Lapata, 2008, "Global Inference for Sentence Compression: An
- * Integer Linear Programming Approach". It requires ILOG CPLEX, which can be
- * acquired for free through IBM's academic initiative (license must be renewed
- * each year). The main method is in the SentenceCompressor class.
+ * Integer Linear Programming Approach". The ILP is solved by a
+ * CompressionSolver: ILOG CPLEX, which can be acquired for free through IBM's
+ * academic initiative (license must be renewed each year), or the bundled
+ * branch-and-bound solver. The main method is in the SentenceCompressor class.
+ * <p>
+ * The variables, constraints 1-5 and the word length constraint depend only
+ * on the length of the sentence (unless trigrams are pruned by their LM
+ * score), so they are built once per length and kept as a template, for the
+ * most recently used lengths. A sentence whose length matches the model in
+ * the solver only adds its own n-gram, grammar and character length
+ * constraints and objective; the rest of the model is removed with
+ * CompressionSolver.truncate after solving.
  * 
  * @author Courtney Napoles
  * 
  */
-public class CompressionModel {
-	IloCplex cplex;
-
-	// binary variables
-	IloIntVar delta[]; // is token i in the compression
-	IloIntVar alpha[]; // does token i start the compression
-	IloIntVar beta[][]; // does bigram <i,j> end the compression
-	IloIntVar gamma[][][]; // is trigram <i,j,k> in the compression
-	IloIntVar pi[][]; // is paraphrase j of phrase i in the compression (unused)
-
-	int n; // length of original sentence (tokens)
-	int t = 120; // twitter length char constraint (this leaves 20 chars for a
-	// short url)
-	double lambda = 1.0; // weight for significance score
-	HashMap<String, Integer> zetaMap; // for looking up n-grams in Google
-	// n-grams
-
-	boolean twitter = false; // use t as a length constraint?
-	boolean strictLength = false; // use a strict length constraint?
-	boolean strictCharLength = false; // use a character length constraint?
-	double minCR = 0.4; // minimum compression rate (cr=compression
-	// length/original length)
+public class CompressionModel extends Compressor {
+	CompressionSolver solver;
+	ConstraintBuilder rows; // adds the constraints to the solver, once each
+
+	// binary variables (indices of the solver's variables)
+	int delta[]; // is token i in the compression
+	int alpha[]; // does token i start the compression
+	int beta[][]; // does bigram <i,j> end the compression
+	int gamma[]; // is trigram t in the compression
+	ArrayList<int[]> trigrams = new ArrayList<int[]>(); // tokens <i,j,k> of
+	// trigram t; only the trigrams kept by keepTrigram have a variable
+	long trigramCount = 0, prunedCount = 0; // totals over all sentences
+	int pi[][]; // is paraphrase j of phrase i in the compression (unused)
+
+	int templateCapacity = 8; // number of templates kept (0 = build the whole
+	// model for each sentence)
+	LinkedHashMap<Long,Template> templates = new LinkedHashMap<Long,Template>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long,Template> e) {
+			return size() > templateCapacity;
+		}
+	}; // by templateKey, least recently used first
+	Template loaded; // the template the solver's model starts with, if any
+
+	/**
+	 * the part of the model that depends only on the sentence length: the
+	 * variables, the trigrams that have a variable, and the rows of the word
+	 * length constraint and constraints 1-5
+	 */
+	static class Template {
+		int delta[], alpha[], beta[][], gamma[];
+		ArrayList<int[]> trigrams;
+		int pruned; // trigrams without a variable
+		int b; // target length of the length constraint (-1 if none)
+		int numVars;
+		List<ConstraintBuilder.Row> rows;
+		List<String> names;
+	}
+
 	boolean paraphrase = false; // paraphrasing not fully implemented/tested
-	boolean ngramConstraint = false; // only use n-grams found in Google n-grams
-	boolean debug = false;
-	MyBerkeleyLm lm;
 	String modelFile; // if user wants to save the model output
-	Sentence sentence; // sentence being compressed
-	String[] sentTokens; // tokens of original sentence
-	int b; // target length
-	String compression; // output compression
+	boolean limited = false; // are the solver's time or nodes limited
 
 	/**
 	 * initialize settings for the ILP solver
@@ -65,74 +86,227 @@ public class CompressionModel {
 	 * @param ngramConstraint
 	 * @param modelFile
 	 * @param minCR
+	 * @param solverName
+	 *            cplex or bb (branch and bound)
 	 */
 	public CompressionModel(MyBerkeleyLm lm, double lambda, String modelFile,
-			double minCR) {
-		this.lm = lm;
-		this.lambda = lambda;
-		this.minCR = minCR;
+			double minCR, String solverName) {
+		super(lm, lambda, minCR);
 		try {
-			cplex = new IloCplex();
-		} catch (IloException e) {
-			System.err.println("Error loading CPLEX. Exiting");
+			solver = CompressionSolver.create(solverName);
+		} catch (Exception e) {
+			System.err.println("Error loading the " + solverName
+					+ " solver. Exiting");
+			e.printStackTrace();
 			System.exit(1);
 		}
-		cplex.setOut(System.err);
+		rows = new ConstraintBuilder(solver);
 		this.modelFile = modelFile;
 	}
 
-	public void defineSettings(boolean twitter, boolean strictConstraints,
-			boolean charConstraints, boolean ngramConstraint) {
-		this.twitter = twitter;
-		this.strictLength = strictConstraints;
-		this.strictCharLength = charConstraints;
-		this.ngramConstraint = ngramConstraint;
+	public CompressionModel(MyBerkeleyLm lm, double lambda, String modelFile,
+			double minCR) {
+		this(lm, lambda, modelFile, minCR, "cplex");
+	}
+
+	/**
+	 * the ILP handles every combination of settings
+	 */
+	public boolean canCompress(Sentence s) {
+		return true;
+	}
+
+	/**
+	 * build the ILP for this sentence, solve it, and reset the model
+	 */
+	public String compress(Sentence s) throws Exception {
+		long start = System.nanoTime();
+		initializeVariables(s);
+		long lm = System.nanoTime();
+		LinearExpr lmTerms = createLmObjective();
+		stats.lmTime += System.nanoTime() - lm;
+		createMaximization(lmTerms);
+		addConstraints();
+		addGlobalConstraints();
+		stats.buildTime += System.nanoTime() - start - stats.lmTime;
+		String output = solve();
+		clear();
+		return output;
+	}
+
+	/**
+	 * compress s for each value of lambda. The ILP is built once: only the
+	 * significance terms of the objective change, and each solve starts from
+	 * the previous solution, which is still feasible.
+	 */
+	public String[] compress(Sentence s, double[] lambdas) throws Exception {
+		double l = lambda;
+		String[] outputs = new String[lambdas.length];
+		try {
+			long start = System.nanoTime();
+			initializeVariables(s);
+			addConstraints();
+			addGlobalConstraints();
+			long lm = System.nanoTime();
+			LinearExpr lmTerms = createLmObjective();
+			stats.lmTime += System.nanoTime() - lm;
+			stats.buildTime += System.nanoTime() - start - stats.lmTime;
+			for (int i = 0; i < lambdas.length; i++) {
+				lambda = lambdas[i];
+				start = System.nanoTime();
+				createMaximization(lmTerms);
+				stats.buildTime += System.nanoTime() - start;
+				outputs[i] = solve();
+				if (i + 1 < lambdas.length && solver.isOptimal()) {
+					double[] values = new double[solver.getNumVariables()];
+					for (int v = 0; v < values.length; v++)
+						values[v] = solver.getValue(v);
+					solver.setStart(values);
+				}
+			}
+		} finally {
+			lambda = l;
+			clear();
+		}
+		return outputs;
 	}
 
 	/**
 	 * create variables for this sentence and add to ILP
 	 * 
 	 * @param s
-	 * @throws IloException
-	 * @throws FileNotFoundException
+	 * @throws SolverException
+	 */
+	public void initializeVariables(Sentence s) throws SolverException {
+		setSentence(s);
+		int pruned;
+		if (templateCapacity > 0
+				&& trigramThreshold == Double.POSITIVE_INFINITY && !paraphrase)
+			pruned = loadTemplate();
+		else {
+			if (loaded != null) {
+				loaded = null;
+				solver.clear();
+				rows.clear();
+			}
+			pruned = createVariables();
+		}
+		trigramCount += gamma.length + pruned;
+		prunedCount += pruned;
+		if (debug && prunesTrigrams())
+			System.err.println("Pruned " + pruned + " of "
+					+ (gamma.length + pruned) + " trigram variables");
+	}
+
+	/**
+	 * start the model from the template for this sentence length, building
+	 * it if it is not cached
+	 * 
+	 * @return the number of trigrams without a variable
+	 * @throws SolverException
+	 */
+	int loadTemplate() throws SolverException {
+		long key = templateKey();
+		Template t = templates.get(key);
+		if (t != null && t == loaded) {
+			solver.truncate(t.numVars, t.rows.size());
+			rows.truncate(t.rows.size());
+		}
+		else {
+			loaded = null;
+			solver.clear();
+			rows.clear();
+			if (t == null) {
+				t = new Template();
+				t.pruned = createVariables();
+				t.b = lengthTarget();
+				if (t.b >= 0)
+					addLengthConstraints();
+				addFlowConstraints();
+				t.delta = delta;
+				t.alpha = alpha;
+				t.beta = beta;
+				t.gamma = gamma;
+				t.trigrams = trigrams;
+				t.numVars = solver.getNumVariables();
+				t.rows = new ArrayList<ConstraintBuilder.Row>(rows.getRows());
+				t.names = new ArrayList<String>(rows.getNames());
+				templates.put(key, t);
+			}
+			else {
+				for (int v = 0; v < t.numVars; v++)
+					solver.boolVar(null);
+				rows.addAll(t.rows, t.names);
+			}
+			loaded = t;
+		}
+		delta = t.delta;
+		alpha = t.alpha;
+		beta = t.beta;
+		gamma = t.gamma;
+		trigrams = t.trigrams;
+		return t.pruned;
+	}
+
+	/**
+	 * the sentence length and the settings of the length constraint, which
+	 * identify a template, so that requests with different compression rates
+	 * each reuse their own
+	 */
+	long templateKey() {
+		return ((long) n << 32) | ((lengthTarget() + 1) << 1)
+				| (strictLength ? 1 : 0);
+	}
+
+	/**
+	 * the target length if the length constraint depends only on the
+	 * sentence length (it is not by characters), -1 otherwise
 	 */
-	public void initializeVariables(Sentence s) throws IloException,
-			FileNotFoundException {
-		n = s.length();
-		this.sentence = s;
-		sentTokens = sentence.getTokens();
+	int lengthTarget() {
+		return strictCharLength || twitter ? -1 : computeTargetLength();
+	}
+
+	/**
+	 * create the variables for this sentence and add them to the ILP
+	 * 
+	 * @return the number of trigrams without a variable
+	 * @throws SolverException
+	 */
+	int createVariables() throws SolverException {
 		// create boolean variables
 		// delta = 1 if token i is present in the compression, 0 o/w
-		delta = new IloIntVar[n];
+		// (variables are named only when the model is written, by
+		// nameVariables)
+		delta = new int[n];
 		for (int i = 0; i < n; i++) {
-			delta[i] = cplex.boolVar();
-			delta[i].setName("d{" + sentTokens[i] + "_" + i + "}");
+			delta[i] = solver.boolVar(null);
 		}
 		// alpha = 1 if token i starts compression, 0 o/w
-		alpha= new IloIntVar[n];
+		alpha= new int[n];
 		for (int i = 0; i < n; i++) {
-			alpha[i] = cplex.boolVar();
-			alpha[i].setName("a{" + sentTokens[i] + "_" + i + "}");
+			alpha[i] = solver.boolVar(null);
 		}
 		// beta = 1 if bigram ij ends compression, 0 o/w
-		beta = new IloIntVar[n][n];
+		beta = new int[n][n];
 		for (int i = 0; i < n; i++) {
 			for (int j = i+1; j < n; j++) {
-				beta[i][j]=cplex.boolVar();
-				beta[i][j].setName("b{" + sentTokens[i] + "_" + i + ","
-						+ sentTokens[j] + "_" + j + "}");
+				beta[i][j]=solver.boolVar(null);
 			}
 		}
 		// gamma = 1 if trigram ijk is present in compression, 0 o/w
-		gamma = new IloIntVar[n][n][n];
+		trigrams = new ArrayList<int[]>();
+		int pruned = 0;
 		for (int i = 0; i < n; i++)
 			for (int j = i+1; j < n; j++)
 				for (int k = j+1; k < n;k++) {
-					gamma[i][j][k]=cplex.boolVar();
-					gamma[i][j][k].setName("g{" + sentTokens[i] + "_" + i + ","
-							+ sentTokens[j] + "_" + j + "," + sentTokens[k]
-							+ "_" + k + "}");
+					if (keepTrigram(i, j, k))
+						trigrams.add(new int[] { i, j, k });
+					else pruned++;
 				}
+		gamma = new int[trigrams.size()];
+		for (int t = 0; t < gamma.length; t++) {
+			gamma[t]=solver.boolVar(null);
+		}
 
 		// initialize pi if paraphrasing turned on--not implemented
 		if (paraphrase) {
@@ -149,17 +323,95 @@ public class CompressionModel {
 			// }
 			// }
 		}
+		return pruned;
 	}
 
 	/**
-	 * reset model
+	 * name the variables after their tokens, for writing the model
 	 * 
-	 * @throws IloException
-	 * @throws IOException
+	 * @throws SolverException
 	 */
-	public void clear() throws IloException, IOException {
-		cplex.setOut(null);
-		cplex.clearModel();
+	void nameVariables() throws SolverException {
+		for (int i = 0; i < n; i++) {
+			solver.setName(delta[i], "d{" + sentTokens[i] + "_" + i + "}");
+			solver.setName(alpha[i], "a{" + sentTokens[i] + "_" + i + "}");
+			for (int j = i+1; j < n; j++) {
+				solver.setName(beta[i][j], "b{" + sentTokens[i] + "_" + i + ","
+						+ sentTokens[j] + "_" + j + "}");
+			}
+		}
+		for (int t = 0; t < gamma.length; t++) {
+			int[] tri = trigrams.get(t);
+			solver.setName(gamma[t], "g{" + sentTokens[tri[0]] + "_" + tri[0] + ","
+					+ sentTokens[tri[1]] + "_" + tri[1] + "," + sentTokens[tri[2]]
+					+ "_" + tri[2] + "}");
+		}
+	}
+
+	/**
+	 * number of trigrams considered, over all sentences
+	 */
+	public long getTrigramCount() { return trigramCount; }
+
+	/**
+	 * number of trigrams without a variable, over all sentences
+	 */
+	public long getPrunedCount() { return prunedCount; }
+
+	/**
+	 * number of model templates kept, one per sentence length and target
+	 * length (0 to build the whole model for each sentence)
+	 */
+	public void setTemplateCapacity(int capacity) {
+		templateCapacity = capacity;
+		templates.clear();
+	}
+
+	/**
+	 * limit the time and branch-and-bound nodes of each solve, after which the
+	 * best solution found so far is used
+	 * 
+	 * @param seconds
+	 *            0 for no limit
+	 * @param nodes
+	 *            0 for no limit
+	 * @param gap
+	 *            relative MIP gap, or < 0 for the solver's default
+	 * @throws SolverException
+	 */
+	public void setLimits(double seconds, int nodes, double gap)
+			throws SolverException {
+		solver.setTimeLimit(seconds);
+		solver.setNodeLimit(nodes);
+		limited = seconds > 0 || nodes > 0;
+		if (gap >= 0)
+			solver.setGap(gap);
+	}
+
+	/**
+	 * the templates depend on the trigrams that have a variable
+	 */
+	public void setTrigramPruning(int window, double threshold) {
+		if (window != this.window || threshold != trigramThreshold)
+			templates.clear();
+		super.setTrigramPruning(window, threshold);
+	}
+
+	/**
+	 * reset model, down to its template if it has one
+	 * 
+	 * @throws SolverException
+	 */
+	public void clear() throws SolverException {
+		solver.setOut(null);
+		if (loaded != null) {
+			solver.truncate(loaded.numVars, loaded.rows.size());
+			rows.truncate(loaded.rows.size());
+		}
+		else {
+			solver.clear();
+			rows.clear();
+		}
 	}
 
 
@@ -169,27 +421,43 @@ public class CompressionModel {
 	 * @throws Exception
 	 */
 	public void createMaximization() throws Exception {
-		IloLinearNumExpr objfn = cplex.linearNumExpr();
+		createMaximization(createLmObjective());
+	}
+
+	/**
+	 * the lm terms of the objective function, which do not depend on lambda
+	 */
+	LinearExpr createLmObjective() {
+		LinearExpr objfn = new LinearExpr();
 		// add variables with lm probability
 		for (int i = 1; i < n; i++) {
-			objfn.addTerm(lm.getLogProb(sentTokens[0], sentTokens[i]),
-					alpha[i]);
-		}
-		for (int i = 1; i < n-2; i++) {
-			for (int j = i+1; j < n-1; j++) {
-				for (int k = j+1; k < n; k++) {
-					objfn.addTerm(lm.getLogProb(sentTokens[i],
-							sentTokens[j], sentTokens[k]),
-							gamma[i][j][k]);
-				}
-			}
+			objfn.addTerm(scores.start(i), alpha[i]);
+		}
+		for (int t = 0; t < gamma.length; t++) {
+			int[] tri = trigrams.get(t);
+			if (tri[0] > 0)
+				objfn.addTerm(scores.trigram(tri[0], tri[1], tri[2]),
+						gamma[t]);
 		}
 		for (int i = 0; i < n-1; i++) {
 			for (int j = i+1; j < n; j++) {
-				objfn.addTerm(lm.getLogProb(sentTokens[i],
-						sentTokens[j], "</s>"), beta[i][j]);
+				objfn.addTerm(scores.end(i, j), beta[i][j]);
 			}
 		}
+		return objfn;
+	}
+
+	/**
+	 * set the objective function: the lm terms plus the weighted significance
+	 * scores
+	 *
+	 * @param lmTerms
+	 * @throws SolverException
+	 */
+	void createMaximization(LinearExpr lmTerms) throws SolverException {
+		LinearExpr objfn = new LinearExpr();
+		for (int i = 0; i < lmTerms.size(); i++)
+			objfn.addTerm(lmTerms.getCoef(i), lmTerms.getVar(i));
 
 		// add significance score
 		for (int i = 1; i < n; i++) {
@@ -197,52 +465,99 @@ public class CompressionModel {
 			if (d != 0.0)
 				objfn.addTerm(d * lambda, delta[i]);
 		}
-		cplex.addMaximize(objfn);
+		solver.maximize(objfn);
 	}
 
-	public double getSigScore(int i) {
-		double d = 0;
-		if (sentence.isTopicWord(i)) {
-			d = 1.0 * sentence.getDepth(i) / sentence.getHeight();
-			d *= sentence.getFrequency(i);
-			d *= Math.log(lm.getTopicFreqCorpus()
-					/ lm.getWordFrequency(sentTokens[i]));
-			if (debug) {
-				System.err.println("lp(" + sentTokens[i] + ") = " + lm.getLogProb(sentTokens[i]));
-				System.err.println("sig(" + sentTokens[i] + ") = " + d + " = "
-						+ sentence.getDepth(i) + "/" + sentence.getHeight()
-						+ " * " + sentence.getFrequency(i) + " * log("
-						+ lm.getTopicFreqCorpus() + "/"
-						+ lm.getWordFrequency(sentTokens[i]) + ")");
+	/**
+	 * add constraints to the ILP (those in the template, if any, are already
+	 * in the model)
+	 * 
+	 * @throws SolverException
+	 */
+	public void addConstraints() throws SolverException {
+		if (loaded == null) {
+			addLengthConstraints();
+			addFlowConstraints();
+		}
+		else if (loaded.b < 0)
+			addLengthConstraints();
+		else b = loaded.b;
+
+		// // add paraphrase constraints
+		// if (paraphrase && !sc.phraseKey.equals("")) {
+		// // constraint 1: <= one pphrase per slot
+		// for (int i = 0; i < pi.length; i++) {
+		// expr.clear();
+		// for (int j = 0 ; j < pi[i].length; j++) {
+		// expr.addTerm(1,pi[i][j]);
+		// }
+		// rows.addLe(expr,1,"paraphrase constraint 1");
+		// }
+		//
+		// // constraint 2: all or nothing for words in a paraphrase
+		// expr.clear();
+		// int[] inds = new int[2];
+		// int slot=1, id=1;
+		// int c = 0;
+		// for (int i = 1; i < n; i++) {
+		// if (!sc.pis[i].equals("0,0")) { // this word is the part of a
+		// paraphrase
+		// inds[0] = Integer.parseInt(sc.pis[i].split(",")[0]);
+		// inds[1] = Integer.parseInt(sc.pis[i].split(",")[1]);
+		// if (inds[0] != slot && inds[1]!=id) {
+		// // close out old expression
+		// expr.addTerm(-1*c,pi[slot-1][id-1]);
+		// rows.addEq(expr,0,"paraphrase constraint 2");
+		// expr.clear();
+		// c=0;
+		// }
+		// slot=inds[0];
+		// id = inds[1];
+		// c++;
+		// expr.addTerm(1,delta[i]);
+		// }
+		// }
+		// }
+
+		// only allow n-grams in compression present in the Google n-grams,
+		// looked up for this sentence only; seen trigrams need no constraint
+		if (ngramConstraint) {
+			boolean[] unseen;
+			try {
+				unseen = unseenTrigrams(trigrams);
+			} catch (IOException e) {
+				throw new SolverException("Error looking up n-grams", e);
+			}
+			for (int t = 0; t < gamma.length; t++) {
+				if (unseen[t])
+					rows.addEq(term(gamma[t]), 0, "ngram constraint");
 			}
 		}
-		return d;
 	}
 
 	/**
-	 * add constraints to the ILP
+	 * add the length constraint: by words (whose target depends only on the
+	 * sentence length) or by characters
 	 * 
-	 * @throws IloException
+	 * @throws SolverException
 	 */
-	public void addConstraints() throws IloException {
-		IloLinearIntExpr expr = cplex.linearIntExpr();
-		b = (int) ((n - 1) * minCR);
-		if (b < 2) b=2;
-		if (b > n-1) b = n-1;
+	void addLengthConstraints() throws SolverException {
+		LinearExpr expr = new LinearExpr();
+		b = computeTargetLength();
 
 		// Length Constraint
 		if (strictCharLength) {
 			expr.clear();
 			for (int i = 1; i < n; i++)
 				expr.addTerm(sentence.getCharLength(i), delta[i]);
-			cplex.addLe(expr, b + 5, "char length constraint");
-			cplex.addGe(expr, b - 5, "char length constraint");
+			rows.addLe(expr, b + 5, "char length constraint");
+			rows.addGe(expr, b - 5, "char length constraint");
 		}
 		else if (twitter) {
 			expr.clear();
 			for (int i = 1; i < n; i++)
 				expr.addTerm(sentence.getCharLength(i), delta[i]);
-			cplex.addLe(expr,t,"twitter length constraint");
+			rows.addLe(expr,t,"twitter length constraint");
 			expr.clear();
 			int minLength = (int) (sentence.charLength() * 0.4);
 			if (minLength >= t) {
@@ -251,67 +566,79 @@ public class CompressionModel {
 			for (int i = 1; i < n; i++) {
 				expr.addTerm(sentence.getCharLength(i), delta[i]);
 			}
-			cplex.addGe(expr, minLength, "twitter length constraint");
+			rows.addGe(expr, minLength, "twitter length constraint");
 		}
 		else if (strictLength) {
 			expr.clear();
 			for (int i = 1; i < n; i++)
 				expr.addTerm(1,delta[i]);
-			cplex.addGe(expr, b - 1, "length constraint");
-			cplex.addLe(expr, b + 1, "length constraint");
+			rows.addGe(expr, b - 1, "length constraint");
+			rows.addLe(expr, b + 1, "length constraint");
 		}
 		else {
 			expr.clear();
 			for (int i = 1; i < n; i++)
 				expr.addTerm(1,delta[i]);
-			cplex.addGe(expr, b, "length constraint");
+			rows.addGe(expr, b, "length constraint");
 		}
-		expr.clear();
+	}
+
+	/**
+	 * add constraints 1-5, which depend only on the sentence length
+	 * 
+	 * @throws SolverException
+	 */
+	void addFlowConstraints() throws SolverException {
+		LinearExpr expr = new LinearExpr();
 
 		// Constraint 1 - exactly one token starts compression
 		for (int i = 1; i < n; i++)
 			expr.addTerm(1,alpha[i]);
-		cplex.addEq(expr,1,"constraint 1");
+		rows.addEq(expr,1,"constraint 1");
+
+		// the trigram terms of constraints 2-4, in one pass over the trigrams
+		LinearExpr[] last = new LinearExpr[n]; // constraint 2
+		LinearExpr[] middle = new LinearExpr[n]; // constraint 3
+		LinearExpr[] first = new LinearExpr[n]; // constraint 4
+		for (int i = 1; i < n; i++) {
+			last[i] = new LinearExpr();
+			last[i].addTerm(1, delta[i]);
+			last[i].addTerm(-1, alpha[i]);
+			middle[i] = new LinearExpr();
+			middle[i].addTerm(1, delta[i]);
+			first[i] = new LinearExpr();
+			first[i].addTerm(1, delta[i]);
+		}
+		for (int t = 0; t < gamma.length; t++) {
+			int[] tri = trigrams.get(t);
+			last[tri[2]].addTerm(-1, gamma[t]);
+			middle[tri[1]].addTerm(-1, gamma[t]);
+			if (tri[0] > 0)
+				first[tri[0]].addTerm(-1, gamma[t]);
+		}
 
 		// Constraint 2 - every token in compression must either
 		// follow two tokens, follow <s> and a token, or start compression
-		for (int k = 1; k < n; k++) {
-			expr.clear();
-			expr.addTerm(1, delta[k]);
-			expr.addTerm(-1,alpha[k]);
-			for (int i = 0; i < k-1; i++)
-				for (int j = i+1; j < k;j++)
-					expr.addTerm(-1,gamma[i][j][k]);
-			cplex.addEq(expr,0,"constraint 2");
-		}
+		for (int k = 1; k < n; k++)
+			rows.addEq(last[k],0,"constraint 2");
 
 		// Constraint 3 - every token in compression must be preceded by a
 		// token and be followed by another token or </s>
 		for (int j = 1; j < n; j++) {
-			expr.clear();
-			expr.addTerm(1,delta[j]);
 			for (int i = 0; i < j; i++)
-				for (int k = j+1; k <n; k++)
-					expr.addTerm(-1,gamma[i][j][k]);
-			for (int i = 0; i < j; i++)
-				expr.addTerm(-1,beta[i][j]);
-			cplex.addEq(expr,0,"constraint 3");
+				middle[j].addTerm(-1,beta[i][j]);
+			rows.addEq(middle[j],0,"constraint 3");
 		}
 
 		// Constraint 4 - every token in compression must be followed by
 		// two tokens or one token and </s>, or it is preceded by one token and
 		// followed by </s>
 		for (int i = 1; i<n; i++) {
-			expr.clear();
-			expr.addTerm(1,delta[i]);
-			for (int j = i+1; j < n-1; j++)
-				for (int k = j+1; k < n;k++)
-					expr.addTerm(-1,gamma[i][j][k]);
 			for (int j = i+1; j < n; j++)
-				expr.addTerm(-1,beta[i][j]);
+				first[i].addTerm(-1,beta[i][j]);
 			for (int h = 0; h < i; h++)
-				expr.addTerm(-1,beta[h][i]);
-			cplex.addEq(expr,0,"constraint 4");
+				first[i].addTerm(-1,beta[h][i]);
+			rows.addEq(first[i],0,"constraint 4");
 		}
 
 		// Constraint 5 - exactly one bigram can end a compression
@@ -319,101 +646,52 @@ public class CompressionModel {
 		for (int i = 0; i < n-1; i++)
 			for (int j = i+1; j < n; j++)
 				expr.addTerm(1,beta[i][j]);
-		cplex.addEq(expr,1,"constraint 5");
-
-
-		// // add paraphrase constraints
-		// if (paraphrase && !sc.phraseKey.equals("")) {
-		// // constraint 1: <= one pphrase per slot
-		// for (int i = 0; i < pi.length; i++) {
-		// expr.clear();
-		// for (int j = 0 ; j < pi[i].length; j++) {
-		// expr.addTerm(1,pi[i][j]);
-		// }
-		// cplex.addLe(expr,1,"paraphrase constraint 1");
-		// }
-		//
-		// // constraint 2: all or nothing for words in a paraphrase
-		// expr.clear();
-		// int[] inds = new int[2];
-		// int slot=1, id=1;
-		// int c = 0;
-		// for (int i = 1; i < n; i++) {
-		// if (!sc.pis[i].equals("0,0")) { // this word is the part of a
-		// paraphrase
-		// inds[0] = Integer.parseInt(sc.pis[i].split(",")[0]);
-		// inds[1] = Integer.parseInt(sc.pis[i].split(",")[1]);
-		// if (inds[0] != slot && inds[1]!=id) {
-		// // close out old expression
-		// expr.addTerm(-1*c,pi[slot-1][id-1]);
-		// cplex.addEq(expr,0,"paraphrase constraint 2");
-		// expr.clear();
-		// c=0;
-		// }
-		// slot=inds[0];
-		// id = inds[1];
-		// c++;
-		// expr.addTerm(1,delta[i]);
-		// }
-		// }
-		// }
-
-		// only allow n-grams in compression present in the Google n-grams
-		if (ngramConstraint) {
-			for (int i = 1; i < n-2; i++)
-				for (int j = i+1; j < n-1; j++)
-					for (int k = j+1; k < n; k++) {
-						cplex.addEq(
-								gamma[i][j][k],
-								zetaMap.get(sentTokens[i] + " "
-										+ sentTokens[j] + " "
-										+ sentTokens[k]),
-								"ngram constraint " + i + "-" + j + "-" + k);
-					}
-		}
+		rows.addEq(expr,1,"constraint 5");
 	}
 
 	/**
-	 * Perform optimization and return the resulting compression
+	 * Perform optimization and return the resulting compression: the optimal
+	 * one, or the best one found within the solver's limits (the status in
+	 * getStats() tells which). Returns "" if no solution was found.
 	 * 
 	 * @return
 	 */
 	public String solve() {
 		String output="";
-		String indices = "";
+		boolean found = false;
 		try {
-			cplex.solve();
-			int len=0;
-			String deltas = "";
-			StringBuffer sb = new StringBuffer();
-			ArrayList<String> solution = new ArrayList<String>();
-			for (int i = 1; i < n; i++) {
-				deltas+=cplex.getValue(delta[i])+" ";
-				if (cplex.getValue(delta[i])>=0.9) { // because sometimes "binary" values are 0.999999 or 1.000001 etc.
-					solution.add(sentence.getOriginal(i));
-					sb.append(i);
-					sb.append(" ");
-					len++;
+			long start = System.nanoTime();
+			found = solver.solve();
+			stats.solveTime += System.nanoTime() - start;
+			if (found) {
+				ArrayList<Integer> kept = new ArrayList<Integer>();
+				for (int i = 1; i < n; i++) {
+					if (solver.getValue(delta[i])>=0.9) { // because sometimes "binary" values are 0.999999 or 1.000001 etc.
+						kept.add(i);
+					}
 				}
+				output = formatCompression(kept);
 			}
-			output = makePretty(solution);
-			indices = sb.toString().trim();
-			compression = output;
-			if (strictCharLength)
-				len = output.length();
-			if (!output.equals(""))
-				output = len+"\t"+output+"\t"+indices;
 		} catch (Exception e) {
-			System.err.println("ERROR: no solution exists");
+			System.err.println("ERROR: unable to solve the model");
 			e.printStackTrace();
 		}
 		try {
-			if (cplex.getStatus() != IloCplex.Status.Optimal) {
-				System.err.println("ERROR: no optimal solution found");
-				writeModel();
+			stats.status = solver.getStatus();
+			stats.nodes += solver.getNumNodes();
+			stats.variables = solver.getNumVariables();
+			stats.requested = rows.getRequested();
+			stats.constraints = solver.getNumConstraints();
+			if (!found) {
+				System.err.println("ERROR: no solution found: " + stats.status);
+				if (!limited) // with limits, write the models with -debug
+					writeModel();
 			}
-		} catch (IloException e) {
-			System.err.println("ERROR: unable to determine CPLEX status");
+			else if (!solver.isOptimal() && debug)
+				System.err.println("No optimal solution found ("
+						+ stats.status + "), using the best one found");
+		} catch (SolverException e) {
+			System.err.println("ERROR: unable to determine solver status");
 		}
 		if (debug)
 			writeModel();
@@ -421,54 +699,14 @@ public class CompressionModel {
 	}
 
 	/**
-	 * Make sure the first letter of the sentence is capitalized and there is
-	 * sentence-final punctuation.
-	 * 
-	 * @param sentTokens
-	 * @return
-	 */
-	private String makePretty(ArrayList<String> sentTokens) {
-		// if a sentence is missing sentence-final punctuation, add a period to
-		// the end of the sentence
-		char c;
-		for (int i = sentTokens.size() - 1; i >= 0; i--) {
-			c = sentTokens.get(i).charAt(0);
-			if (c == '.' || c == '?' || c == '!') {
-				break;
-			}
-			if (c != '\'' && !sentence.isQuotationMark(sentTokens.get(i))) {
-				sentTokens.add (".");
-				break;
-			}
-		}
-		StringBuffer sb = new StringBuffer();
-		for (String s : sentTokens) {
-			sb.append(s);
-			sb.append(" ");
-		}
-		String s = sb.toString().trim();
-		// ensure capitalization of first word
-		for (int i = 0; i < s.length(); i++) {
-			c = s.charAt(i);
-			if (c >= 65 && c <= 122) {
-				if (c <= 90)
-					break;
-				if (c >= 97) {
-					s = Character.toUpperCase(c) + s.substring(i + 1);
-					break;
-				}
-			}
-		}
-		return s;
-	}
-
-	/**
-	 * write the model to file
+	 * write the model to file, naming its variables and rows first
 	 */
 	public void writeModel() {
 		try {
-			cplex.exportModel(modelFile + "-" + sentence.getId() + ".lp");
-			System.err.println("Cplex model saved to " + modelFile + "-"
+			nameVariables();
+			rows.nameRows();
+			solver.exportModel(modelFile + "-" + sentence.getId() + ".lp");
+			System.err.println("Model saved to " + modelFile + "-"
 					+ sentence.getId() + ".lp");
 		} catch (Exception e) {}
 	}
@@ -476,63 +714,74 @@ public class CompressionModel {
 	/**
 	 * add grammatical constraints. See Clarke and Lapata (2008) for details.
 	 * 
-	 * @throws IloException
+	 * @throws SolverException
 	 */
-	public void addGlobalConstraints() throws IloException {
+	public void addGlobalConstraints() throws SolverException {
 		int[] conjunctions = new int[n];
-		IloLinearIntExpr expr = cplex.linearIntExpr();
+		LinearExpr expr = new LinearExpr();
 
 		// add constraints for Stanford grammar dependencies
-		for (GrammarDependency gr : sentence.getDependencies()) {
-			if (gr.isMod()) {
-				cplex.addGe(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0,"mod constraint");
-			}
-			else if (gr.isDet()) {
-				cplex.addGe(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0,"det constraint");
-			}
-			else if (gr.isPoss()) {
-				cplex.addEq(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0,"poss constraint");
-			}
-			else if (gr.isNeg()) {
-				cplex.addEq(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0,"neg constraint");
-			}
-			else if (gr.isSubjObj()) {
-				cplex.addEq(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0,"subj/obj constraint");
-			}
-			else if (gr.isPpSub()) {
-				cplex.addEq(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0,"rev pp constraint");
-			}
-			else if (gr.isType("cc")) {
-				conjunctions[gr.a()] = gr.b();
-				cplex.addGe(cplex.sum(delta[gr.a()],cplex.negative(delta[gr.b()])),0);
-				//create equations to keep track of the conjuncts of a
-			}
-			else if (gr.isType("conj")) {
-				cplex.addGe(cplex.sum(delta[gr.b()],cplex.negative(delta[conjunctions[gr.a()]])),0);
-				cplex.addGe(cplex.sum(delta[conjunctions[gr.a()]],cplex.negative(delta[gr.b()]),cplex.negative(delta[gr.b()])),-1);
+		if (grammarConstraints) {
+			for (int d = 0; d < sentence.numDependencies(); d++) {
+				int gov = sentence.getGovernor(d), dep = sentence.getDependent(d);
+				switch (sentence.getDependencyKind(d)) {
+				case GrammarDependency.MOD:
+					rows.addGe(difference(delta[gov],delta[dep]),0,"mod constraint");
+					break;
+				case GrammarDependency.DET:
+					rows.addGe(difference(delta[gov],delta[dep]),0,"det constraint");
+					break;
+				case GrammarDependency.POSS:
+					rows.addEq(difference(delta[gov],delta[dep]),0,"poss constraint");
+					break;
+				case GrammarDependency.NEG:
+					rows.addEq(difference(delta[gov],delta[dep]),0,"neg constraint");
+					break;
+				case GrammarDependency.SUBJ_OBJ:
+					rows.addEq(difference(delta[gov],delta[dep]),0,"subj/obj constraint");
+					break;
+				case GrammarDependency.PP_SUB:
+					rows.addEq(difference(delta[gov],delta[dep]),0,"rev pp constraint");
+					break;
+				case GrammarDependency.CC:
+					conjunctions[gov] = dep;
+					rows.addGe(difference(delta[gov],delta[dep]),0,null);
+					//create equations to keep track of the conjuncts of gov
+					break;
+				case GrammarDependency.CONJ:
+					rows.addGe(difference(delta[dep],delta[conjunctions[gov]]),0,null);
+					expr.clear();
+					expr.addTerm(1, delta[conjunctions[gov]]);
+					expr.addTerm(-2, delta[dep]);
+					rows.addGe(expr,-1,null);
+					break;
+				}
 			}
 
-			// add constraints for PPs and SBARs
-			for (Clause c : sentence.getClauses()) {
-				int i = c.getHead();
-				expr.clear();
-				for (int j : c.getConstituents()) {
-					cplex.addGe(cplex.sum(delta[i],cplex.negative(delta[j])),0,"pp/sbar constraint");
-					expr.addTerm(1, delta[j]);
+			// add constraints for PPs and SBARs (once per clause, not once
+			// per dependency)
+			if (sentence.numDependencies() > 0) {
+				for (Clause c : sentence.getClauses()) {
+					int i = c.getHead();
+					expr.clear();
+					for (int j : c.getConstituents()) {
+						rows.addGe(difference(delta[i],delta[j]),0,"pp/sbar constraint");
+						expr.addTerm(1, delta[j]);
+					}
+					expr.addTerm(-1, delta[i]);
+					rows.addGe(expr,0,"pp/sbar constraint");
 				}
-				expr.addTerm(-1, delta[i]);
-				cplex.addGe(expr,0,"pp/sbar constraint");
 			}
 		}
 
 		// add constraint that there must be >= 1 non-punctuation token
 		expr.clear();
 		for (int i = 1; i < n - 1; i++) {
-			if (sentTokens[i].matches("\\w+")) {
+			if (sentence.isWord(i)) {
 				expr.addTerm(1, delta[i]);
 			}
 		}
-		cplex.addGe(expr, 1, "punctuation constraint");
+		rows.addGe(expr, 1, "punctuation constraint");
 
 		// at least one verb must be in the compression if a verb is in the original sentence
 		boolean found = false;
@@ -544,38 +793,47 @@ public class CompressionModel {
 			}
 		}
 		if (found)
-			cplex.addGe(expr,1,"verb constraint");
+			rows.addGe(expr,1,"verb constraint");
 		expr.clear();
 
 		for (int i = 1; i < n; i++) {
 			// don't include any tokens in parentheses
 			if (sentence.inParens(i)) {
-				cplex.addEq(delta[i],0,"bracket constraint");
+				rows.addEq(term(delta[i]),0,"bracket constraint");
 
 			}
 			// include all personal pronouns (bad rule?)
 			else if (sentence.isPRP(i)) {
-				cplex.addEq(delta[i],1,"prp constraint");
+				rows.addEq(term(delta[i]),1,"prp constraint");
 			}
 		}
+		if (debug)
+			System.err.println("Constraints: " + rows.getRequested()
+					+ " rows, " + rows.getAdded() + " after removing duplicates");
 	}
 
-	public void setTargetLength(Integer i) {
-		b = i;
+	/**
+	 * expression a - b, for constraints between two tokens
+	 */
+	LinearExpr difference(int a, int b) {
+		LinearExpr expr = new LinearExpr();
+		expr.addTerm(1, a);
+		expr.addTerm(-1, b);
+		return expr;
 	}
 
-	public void setZetas(HashMap<String, Integer> zetaMap) {
-		this.zetaMap = zetaMap;
+	/**
+	 * expression consisting of a single variable
+	 */
+	LinearExpr term(int a) {
+		LinearExpr expr = new LinearExpr();
+		expr.addTerm(1, a);
+		return expr;
 	}
 
-	public void suppressCplexOutput(boolean b) {
+	public void suppressSolverOutput(boolean b) {
 		if (b)
-			cplex.setOut(null);
-	}
-
-	public void writeSentenceModels(boolean b) {
-		debug = b;
-
+			solver.setOut(null);
 	}
 
-}
+}
\ No newline at end of file
@@ -0,0 +1,218 @@
+package research.compression;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import research.lib.Document;
+import research.lib.DocumentImporter;
+import research.lib.Sentence;
+
+/**
+ * Keeps the lm, the parser and the compressors loaded and compresses the
+ * sentences of requests sent to a local port, so that each request does not
+ * pay for starting the JVM and loading the models. A request is a line
+ * starting with COMPRESS, optionally followed by the settings -cr=val, -l=val,
+ * -tweet, -xml and -lines=val, then the input (raw text with one sentence per
+ * line, or an XML document). With -lines, the input is the next val lines,
+ * which may be empty; otherwise it ends at the first empty line. The reply is
+ * the output lines of the sentences, as printed by SentenceCompressor,
+ * followed by an empty line, or a line starting with ERROR followed by an
+ * empty line. A connection may send several requests, one after the other.
+ * Requests of different connections are compressed in parallel, by as many
+ * workers as there are threads.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class CompressionServer {
+	SentenceCompressor settings; // default settings, lm and parse cache
+	DocumentImporter importer = new DocumentImporter(); // shared by all requests
+	BlockingQueue<SentenceCompressor> idle = new LinkedBlockingQueue<SentenceCompressor>(); // workers
+	ExecutorService connections = Executors.newCachedThreadPool();
+	int port;
+
+	/**
+	 * a request: its settings and sentences
+	 */
+	static class Request {
+		double minCR, lambda;
+		boolean twitter, rawText;
+		Document document;
+	}
+
+	/**
+	 * load the parser and create the workers
+	 *
+	 * @param settings
+	 *            an initialized SentenceCompressor, whose settings are the
+	 *            default settings of the requests
+	 * @param port
+	 */
+	public CompressionServer(SentenceCompressor settings, int port) {
+		this.settings = settings;
+		this.port = port;
+		importer.setParseCache(settings.parseCache);
+		importer.setParseThreads(settings.parseThreads);
+		importer.loadParser();
+		for (int i = 0; i < settings.threads; i++)
+			idle.add(settings.newWorker());
+	}
+
+	/**
+	 * accept connections until the process is stopped
+	 *
+	 * @throws IOException
+	 */
+	public void run() throws IOException {
+		ServerSocket server = new ServerSocket(port, 50, InetAddress.getByName("localhost"));
+		System.err.println("Listening on localhost:" + server.getLocalPort());
+		while (true) {
+			final Socket socket = server.accept();
+			connections.submit(new Runnable() {
+				public void run() {
+					serve(socket);
+				}
+			});
+		}
+	}
+
+	/**
+	 * answer the requests of a connection until it is closed
+	 */
+	void serve(Socket socket) {
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					socket.getInputStream(), "UTF-8"));
+			PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					socket.getOutputStream(), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.trim().length() == 0) continue;
+				StringBuilder input = new StringBuilder();
+				String l;
+				try {
+					int lines = inputLines(line);
+					for (int i = 0; lines < 0 || i < lines; i++) {
+						if ((l = in.readLine()) == null) {
+							if (lines < 0) break;
+							throw new IOException("the input ended after " + i
+									+ " of " + lines + " lines");
+						}
+						if (lines < 0 && l.length() == 0) break;
+						input.append(l).append('\n');
+					}
+					out.print(compress(readRequest(line, input.toString())));
+				} catch (Exception e) {
+					out.println("ERROR " + e.getMessage());
+				}
+				out.println();
+				out.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("Error reading request: " + e.getMessage());
+		} finally {
+			try { socket.close(); }
+			catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * the number of lines of input given by -lines in the header of a
+	 * request, or -1 if the input ends at an empty line
+	 *
+	 * @param header
+	 * @return
+	 */
+	static int inputLines(String header) {
+		for (String opt : header.trim().split("\\s+")) {
+			if (opt.startsWith("-lines=")) {
+				int lines = Integer.parseInt(opt.replace("-lines=", ""));
+				if (lines < 0)
+					throw new IllegalArgumentException("Invalid number of lines: " + lines);
+				return lines;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * parse the settings and sentences of a request
+	 *
+	 * @param header
+	 *            COMPRESS and the settings
+	 * @param input
+	 * @return
+	 */
+	Request readRequest(String header, String input) throws IOException {
+		String[] opts = header.trim().split("\\s+");
+		if (!opts[0].equals("COMPRESS"))
+			throw new IllegalArgumentException("Unknown request: " + opts[0]);
+		Request r = new Request();
+		r.minCR = settings.minCR;
+		r.lambda = settings.lambda;
+		r.twitter = settings.twitter;
+		r.rawText = true;
+		for (int i = 1; i < opts.length; i++) {
+			String opt = opts[i];
+			if (opt.startsWith("-cr=")) r.minCR = Double.parseDouble(opt.replace("-cr=", ""));
+			else if (opt.startsWith("-l=")) r.lambda = Double.parseDouble(opt.replace("-l=", ""));
+			else if (opt.equals("-tweet")) r.twitter = true;
+			else if (opt.equals("-xml")) r.rawText = false;
+			else if (opt.startsWith("-lines=")) continue; // read by serve
+			else throw new IllegalArgumentException("Invalid option: " + opt);
+		}
+		if (r.rawText) {
+			r.document = new Document();
+			int count = 0;
+			for (String line : input.split("\n")) {
+				if (line.trim().length() == 0) continue;
+				Sentence s = new Sentence();
+				s.setText(line.trim());
+				s.setId("" + (count++));
+				s.setParent(r.document);
+				r.document.add(s);
+			}
+		}
+		else r.document = new Document(new StringReader(input));
+		if (r.document.getTitle() == null)
+			r.document.setTitle("");
+		return r;
+	}
+
+	/**
+	 * parse and compress the sentences of a request with an idle worker
+	 *
+	 * @param r
+	 * @return the output lines
+	 * @throws Exception
+	 */
+	String compress(Request r) throws Exception {
+		if (r.rawText)
+			importer.generateParses(r.document);
+		r.document.getTopicWordData();
+		SentenceCompressor worker = idle.take();
+		try {
+			worker.minCR = r.minCR;
+			worker.lambda = r.lambda;
+			worker.twitter = r.twitter;
+			worker.reconfigure();
+			StringBuilder sb = new StringBuilder();
+			for (Sentence s : r.document.getSentences())
+				sb.append(worker.compressSentence(s));
+			return sb.toString();
+		} finally {
+			idle.add(worker);
+		}
+	}
+}
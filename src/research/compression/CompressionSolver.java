@@ -0,0 +1,168 @@
+package research.compression;
+
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * A backend for solving the binary ILPs built by CompressionModel. Variables
+ * are referred to by the index returned by boolVar().
+ * 
+ * @author Courtney Napoles
+ * 
+ */
+public abstract class CompressionSolver {
+	public enum Sense { EQ, GE, LE }
+
+	/**
+	 * create the named solver ("cplex" or "bb"). CplexSolver is loaded by
+	 * name, since it is only built when cplex.jar is available.
+	 * 
+	 * @param name
+	 * @return
+	 * @throws SolverException
+	 */
+	public static CompressionSolver create(String name) throws SolverException {
+		if (name.equals("cplex")) {
+			try {
+				return (CompressionSolver) Class
+						.forName("research.compression.CplexSolver")
+						.getConstructor().newInstance();
+			} catch (InvocationTargetException e) {
+				if (e.getCause() instanceof SolverException)
+					throw (SolverException) e.getCause();
+				throw new SolverException("Error loading CPLEX", e.getCause());
+			} catch (ReflectiveOperationException e) {
+				throw new SolverException(
+						"CPLEX solver not built (use -solver=bb)", e);
+			} catch (LinkageError e) {
+				throw new SolverException(
+						"CPLEX not found (use -solver=bb)", e);
+			}
+		}
+		if (name.equals("bb"))
+			return new BranchAndBoundSolver();
+		throw new SolverException("Unknown solver: " + name);
+	}
+
+	/**
+	 * create a binary variable
+	 * 
+	 * @param name
+	 *            null for none (it may be named later with setName)
+	 * @return the index of the variable
+	 * @throws SolverException
+	 */
+	public abstract int boolVar(String name) throws SolverException;
+
+	/**
+	 * add the constraint expr (=,>=,<=) rhs, named name (or null)
+	 */
+	public abstract void addConstraint(LinearExpr expr, Sense sense,
+			double rhs, String name) throws SolverException;
+
+	/**
+	 * name a variable, e.g. before exporting the model
+	 */
+	public abstract void setName(int var, String name) throws SolverException;
+
+	/**
+	 * name a constraint (numbered from 0 in the order they were added)
+	 */
+	public abstract void setRowName(int row, String name) throws SolverException;
+
+	/**
+	 * set the objective function, which will be maximized. Replaces the
+	 * current objective, if any, keeping the variables and constraints.
+	 */
+	public abstract void maximize(LinearExpr expr) throws SolverException;
+
+	/**
+	 * solve the model, within the time and node limits
+	 * 
+	 * @return true if a feasible solution was found
+	 * @throws SolverException
+	 */
+	public abstract boolean solve() throws SolverException;
+
+	/**
+	 * stop each solve after this many seconds (0 for no limit), keeping the
+	 * best solution found so far
+	 */
+	public abstract void setTimeLimit(double seconds) throws SolverException;
+
+	/**
+	 * stop each solve after this many branch-and-bound nodes (0 for no limit)
+	 */
+	public abstract void setNodeLimit(int nodes) throws SolverException;
+
+	/**
+	 * the relative gap between the best solution and the best bound at which
+	 * a solution is accepted as optimal
+	 */
+	public abstract void setGap(double gap) throws SolverException;
+
+	/**
+	 * a feasible solution (a value for each variable) that the next solve may
+	 * start from. Ignored by default.
+	 */
+	public void setStart(double[] values) throws SolverException {}
+
+	/**
+	 * value of a variable in the solution
+	 */
+	public abstract double getValue(int var) throws SolverException;
+
+	/**
+	 * returns true if the last solution is provably optimal (within the gap)
+	 */
+	public abstract boolean isOptimal() throws SolverException;
+
+	/**
+	 * the status of the last solve, e.g. Optimal or Infeasible, with the
+	 * limit that stopped it, if any
+	 */
+	public abstract String getStatus() throws SolverException;
+
+	/**
+	 * number of branch-and-bound nodes of the last solve
+	 */
+	public abstract int getNumNodes() throws SolverException;
+
+	/**
+	 * remove all variables and constraints
+	 */
+	public abstract void clear() throws SolverException;
+
+	/**
+	 * remove the variables and constraints added after the first vars
+	 * variables and rows constraints, and the objective, keeping the rest of
+	 * the model for the next one
+	 */
+	public abstract void truncate(int vars, int rows) throws SolverException;
+
+	/**
+	 * write the model to file in LP format
+	 */
+	public abstract void exportModel(String file) throws SolverException;
+
+	/**
+	 * where to write the solver log (null for no log)
+	 */
+	public abstract void setOut(PrintStream out);
+
+	public abstract int getNumVariables();
+
+	public abstract int getNumConstraints();
+
+	public void addEq(LinearExpr expr, double rhs, String name) throws SolverException {
+		addConstraint(expr, Sense.EQ, rhs, name);
+	}
+
+	public void addGe(LinearExpr expr, double rhs, String name) throws SolverException {
+		addConstraint(expr, Sense.GE, rhs, name);
+	}
+
+	public void addLe(LinearExpr expr, double rhs, String name) throws SolverException {
+		addConstraint(expr, Sense.LE, rhs, name);
+	}
+}
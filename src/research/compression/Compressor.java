@@ -0,0 +1,354 @@
+package research.compression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import research.lib.GrammarDependency;
+import research.lib.MyBerkeleyLm;
+import research.lib.NgramLookup;
+import research.lib.Sentence;
+
+/**
+ * Common settings and helpers for the different ways of finding the best
+ * compression of a sentence. Subclasses search for the subsequence of tokens
+ * maximizing the trigram LM score plus the weighted significance score,
+ * subject to the length (and optionally grammatical) constraints described in
+ * the CompressionModel class.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public abstract class Compressor {
+	int n; // length of original sentence (tokens)
+	int t = 120; // twitter length char constraint (this leaves 20 chars for a
+	// short url)
+	double lambda = 1.0; // weight for significance score
+	NgramLookup ngrams; // for looking up n-grams in Google n-grams
+
+	boolean twitter = false; // use t as a length constraint?
+	boolean strictLength = false; // use a strict length constraint?
+	boolean strictCharLength = false; // use a character length constraint?
+	double minCR = 0.4; // minimum compression rate (cr=compression
+	// length/original length)
+	boolean ngramConstraint = false; // only use n-grams found in Google n-grams
+	boolean grammarConstraints = true; // use dependency and clause constraints
+	int window = 0; // max distance between the tokens of a trigram (0 = no
+	// limit)
+	double trigramThreshold = Double.POSITIVE_INFINITY; // keep trigrams outside
+	// the window if their log prob is at least this
+	boolean debug = false;
+	MyBerkeleyLm lm;
+	LmScoreTable scores; // lm scores of the n-grams of the sentence
+	Sentence sentence; // sentence being compressed
+	String[] sentTokens; // tokens of original sentence
+	int b; // target length
+	String compression; // output compression
+	Metrics.Record stats = new Metrics.Record(); // timings and model size of
+	// the last compression
+
+	public Compressor(MyBerkeleyLm lm, double lambda, double minCR) {
+		this.lm = lm;
+		scores = new LmScoreTable(lm);
+		this.lambda = lambda;
+		this.minCR = minCR;
+	}
+
+	public void defineSettings(boolean twitter, boolean strictConstraints,
+			boolean charConstraints, boolean ngramConstraint) {
+		this.twitter = twitter;
+		this.strictLength = strictConstraints;
+		this.strictCharLength = charConstraints;
+		this.ngramConstraint = ngramConstraint;
+	}
+
+	/**
+	 * returns true if this method finds the optimal compression of s under
+	 * the current settings
+	 *
+	 * @param s
+	 * @return
+	 */
+	public abstract boolean canCompress(Sentence s);
+
+	/**
+	 * find the best compression of s and return it in the output format
+	 * (length, compression, indices), or "" if there is no solution
+	 *
+	 * @param s
+	 * @return
+	 * @throws Exception
+	 */
+	public abstract String compress(Sentence s) throws Exception;
+
+	/**
+	 * find the best compression of s for each value of lambda (for tuning)
+	 *
+	 * @param s
+	 * @param lambdas
+	 * @return the compression for each lambda, as returned by compress
+	 * @throws Exception
+	 */
+	public String[] compress(Sentence s, double[] lambdas) throws Exception {
+		double l = lambda;
+		String[] outputs = new String[lambdas.length];
+		try {
+			for (int i = 0; i < lambdas.length; i++) {
+				lambda = lambdas[i];
+				outputs[i] = compress(s);
+			}
+		} finally {
+			lambda = l;
+		}
+		return outputs;
+	}
+
+	/**
+	 * set the sentence being compressed
+	 *
+	 * @param s
+	 */
+	void setSentence(Sentence s) {
+		stats.clear();
+		compression = "";
+		long start = System.nanoTime();
+		n = s.length();
+		this.sentence = s;
+		sentTokens = sentence.getTokens();
+		scores.setSentence(sentTokens, window);
+		stats.lmTime += System.nanoTime() - start;
+	}
+
+	/**
+	 * target length in tokens, derived from the minimum compression rate
+	 *
+	 * @return
+	 */
+	int computeTargetLength() {
+		int b = (int) ((n - 1) * minCR);
+		if (b < 2) b=2;
+		if (b > n-1) b = n-1;
+		return b;
+	}
+
+	/**
+	 * returns true if the dependency and clause constraints of
+	 * CompressionModel.addGlobalConstraints apply to this sentence
+	 *
+	 * @param s
+	 * @return
+	 */
+	boolean hasGrammarConstraints(Sentence s) {
+		if (!grammarConstraints || s.numDependencies() == 0) return false;
+		if (!s.getClauses().isEmpty()) return true;
+		for (int d = 0; d < s.numDependencies(); d++) {
+			if (s.getDependencyKind(d) != GrammarDependency.OTHER)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * returns true if the trigram <i,j,k> may be in the compression, i.e. its
+	 * tokens are within the window or its LM score is above the threshold.
+	 * The distance from <s> to the first token is not limited. Without a
+	 * window, every trigram must be above the threshold.
+	 *
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return
+	 */
+	boolean keepTrigram(int i, int j, int k) {
+		if (window > 0 && (i == 0 || j - i <= window) && k - j <= window)
+			return true;
+		if (trigramThreshold == Double.POSITIVE_INFINITY) return window <= 0;
+		return scores.trigram(i, j, k) >= trigramThreshold;
+	}
+
+	/**
+	 * returns true if some trigrams may be pruned, by distance or LM score
+	 */
+	boolean prunesTrigrams() {
+		return window > 0 || trigramThreshold != Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * for the n-gram constraint, look up the trigrams of the sentence in one
+	 * batch and return which are not in Google n-grams. Trigrams starting
+	 * with <s> are not looked up.
+	 *
+	 * @param trigrams
+	 *            tokens <i,j,k> of each trigram
+	 * @return
+	 * @throws IOException
+	 */
+	boolean[] unseenTrigrams(List<int[]> trigrams) throws IOException {
+		List<String> queries = new ArrayList<String>();
+		for (int[] tri : trigrams) {
+			if (tri[0] > 0)
+				queries.add(sentTokens[tri[0]] + " " + sentTokens[tri[1]]
+						+ " " + sentTokens[tri[2]]);
+		}
+		int[] found = ngrams.hasNgrams(queries);
+		boolean[] unseen = new boolean[trigrams.size()];
+		int q = 0;
+		for (int t = 0; t < unseen.length; t++) {
+			if (trigrams.get(t)[0] > 0)
+				unseen[t] = found[q++] == 0;
+		}
+		return unseen;
+	}
+
+	public double getSigScore(int i) {
+		double d = 0;
+		if (sentence.isTopicWord(i)) {
+			d = 1.0 * sentence.getDepth(i) / sentence.getHeight();
+			d *= sentence.getFrequency(i);
+			d *= Math.log(lm.getTopicFreqCorpus()
+					/ lm.getWordFrequency(sentTokens[i]));
+			if (debug) {
+				System.err.println("lp(" + sentTokens[i] + ") = " + lm.getLogProb(sentTokens[i]));
+				System.err.println("sig(" + sentTokens[i] + ") = " + d + " = "
+						+ sentence.getDepth(i) + "/" + sentence.getHeight()
+						+ " * " + sentence.getFrequency(i) + " * log("
+						+ lm.getTopicFreqCorpus() + "/"
+						+ lm.getWordFrequency(sentTokens[i]) + ")");
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * the value of the objective of CompressionModel for a compression of the
+	 * current sentence (negative infinity if it is empty)
+	 *
+	 * @param kept
+	 *            indices of the kept tokens, in order
+	 * @return
+	 */
+	double objective(List<Integer> kept) {
+		double d = 0;
+		int prev = 0, last = 0; // the last two kept tokens
+		for (int i : kept) {
+			d += getSigScore(i) * lambda;
+			if (last == 0)
+				d += scores.start(i);
+			else if (prev > 0) // <s> is not scored as the first token of a trigram
+				d += scores.trigram(prev, last, i);
+			prev = last;
+			last = i;
+		}
+		if (last == 0)
+			return Double.NEGATIVE_INFINITY;
+		return d + scores.end(prev, last);
+	}
+
+	/**
+	 * build the output line for the tokens kept in the compression
+	 *
+	 * @param kept
+	 *            indices of the kept tokens, in order
+	 * @return
+	 */
+	String formatCompression(List<Integer> kept) {
+		StringBuffer sb = new StringBuffer();
+		ArrayList<String> solution = new ArrayList<String>();
+		for (int i : kept) {
+			solution.add(sentence.getOriginal(i));
+			sb.append(i);
+			sb.append(" ");
+		}
+		int len = kept.size();
+		String output = makePretty(solution);
+		String indices = sb.toString().trim();
+		compression = output;
+		if (strictCharLength)
+			len = output.length();
+		if (!output.equals(""))
+			output = len+"\t"+output+"\t"+indices;
+		return output;
+	}
+
+	/**
+	 * Make sure the first letter of the sentence is capitalized and there is
+	 * sentence-final punctuation.
+	 *
+	 * @param sentTokens
+	 * @return
+	 */
+	String makePretty(ArrayList<String> sentTokens) {
+		// if a sentence is missing sentence-final punctuation, add a period to
+		// the end of the sentence
+		char c;
+		for (int i = sentTokens.size() - 1; i >= 0; i--) {
+			c = sentTokens.get(i).charAt(0);
+			if (c == '.' || c == '?' || c == '!') {
+				break;
+			}
+			if (c != '\'' && !sentence.isQuotationMark(sentTokens.get(i))) {
+				sentTokens.add (".");
+				break;
+			}
+		}
+		StringBuffer sb = new StringBuffer();
+		for (String s : sentTokens) {
+			sb.append(s);
+			sb.append(" ");
+		}
+		String s = sb.toString().trim();
+		// ensure capitalization of first word
+		for (int i = 0; i < s.length(); i++) {
+			c = s.charAt(i);
+			if (c >= 65 && c <= 122) {
+				if (c <= 90)
+					break;
+				if (c >= 97) {
+					s = Character.toUpperCase(c) + s.substring(i + 1);
+					break;
+				}
+			}
+		}
+		return s;
+	}
+
+	public void setLambda(double lambda) {
+		this.lambda = lambda;
+	}
+
+	public void setMinCR(double minCR) {
+		this.minCR = minCR;
+	}
+
+	public void setTargetLength(Integer i) {
+		b = i;
+	}
+
+	public void setTrigramPruning(int window, double threshold) {
+		this.window = window;
+		trigramThreshold = threshold;
+	}
+
+	public void setNgrams(NgramLookup ngrams) {
+		this.ngrams = ngrams;
+	}
+
+	public void useGrammarConstraints(boolean b) {
+		grammarConstraints = b;
+	}
+
+	public void writeSentenceModels(boolean b) {
+		debug = b;
+	}
+
+	/**
+	 * the timings and model size of the last compression
+	 */
+	public Metrics.Record getStats() {
+		return stats;
+	}
+
+	public String getCompression() {
+		return compression;
+	}
+}
@@ -0,0 +1,211 @@
+package research.compression;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import research.compression.CompressionSolver.Sense;
+
+/**
+ * Adds the constraints of a model to a CompressionSolver, skipping any row
+ * that is identical to one already added: the same variables and
+ * coefficients (in any order), sense and right hand side. Rows such as the
+ * dependency constraints are often generated more than once for a sentence.
+ * Counts the rows requested and added, for the current model. The names of
+ * the rows are only given to the solver when nameRows is called (to export
+ * the model), since naming every row is costly for some solvers. The rows
+ * are kept in order, so that the rows of a model template can be added again
+ * (addAll) or the rows after them removed (truncate).
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class ConstraintBuilder {
+	CompressionSolver solver;
+	HashSet<Row> rows = new HashSet<Row>();
+	ArrayList<Row> added = new ArrayList<Row>(); // in the order added
+	ArrayList<String> names = new ArrayList<String>(); // of the added rows
+	int named = 0; // rows given their names
+	int requested = 0;
+
+	/**
+	 * a constraint with its terms sorted by variable, repeated variables
+	 * merged and zero coefficients removed
+	 */
+	static class Row {
+		int[] vars;
+		double[] coefs;
+		Sense sense;
+		double rhs;
+		int hash;
+
+		Row(LinearExpr expr, Sense sense, double rhs) {
+			long[] order = new long[expr.size()];
+			for (int i = 0; i < order.length; i++)
+				order[i] = ((long) expr.getVar(i) << 32) | i;
+			Arrays.sort(order);
+			vars = new int[order.length];
+			coefs = new double[order.length];
+			int size = 0;
+			for (long o : order) {
+				int i = (int) o;
+				int var = expr.getVar(i);
+				if (size > 0 && vars[size - 1] == var)
+					coefs[size - 1] += expr.getCoef(i);
+				else {
+					vars[size] = var;
+					coefs[size++] = expr.getCoef(i);
+				}
+			}
+			int nonzero = 0;
+			for (int i = 0; i < size; i++) {
+				if (coefs[i] == 0) continue;
+				vars[nonzero] = vars[i];
+				coefs[nonzero++] = coefs[i];
+			}
+			vars = Arrays.copyOf(vars, nonzero);
+			coefs = Arrays.copyOf(coefs, nonzero);
+			this.sense = sense;
+			this.rhs = rhs;
+			hash = 31 * (31 * (31 * Arrays.hashCode(vars) + Arrays.hashCode(coefs))
+					+ sense.hashCode()) + Double.valueOf(rhs).hashCode();
+		}
+
+		/**
+		 * the terms of the row, sharing its arrays
+		 */
+		LinearExpr expr() {
+			LinearExpr expr = new LinearExpr();
+			expr.vars = vars;
+			expr.coefs = coefs;
+			expr.size = vars.length;
+			return expr;
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Row)) return false;
+			Row r = (Row) o;
+			return hash == r.hash && sense == r.sense && rhs == r.rhs
+					&& Arrays.equals(vars, r.vars) && Arrays.equals(coefs, r.coefs);
+		}
+	}
+
+	public ConstraintBuilder(CompressionSolver solver) {
+		this.solver = solver;
+	}
+
+	/**
+	 * add the constraint expr (=,>=,<=) rhs, unless the same row was added
+	 * before
+	 *
+	 * @return true if the row was added
+	 * @throws SolverException
+	 */
+	public boolean add(LinearExpr expr, Sense sense, double rhs, String name)
+			throws SolverException {
+		requested++;
+		Row row = new Row(expr, sense, rhs);
+		if (!rows.add(row))
+			return false;
+		solver.addConstraint(expr, sense, rhs, null);
+		added.add(row);
+		names.add(name);
+		return true;
+	}
+
+	/**
+	 * add rows recorded from another model of the same variables (e.g. by
+	 * getRows), skipping duplicates
+	 *
+	 * @param rows
+	 * @param names
+	 *            of the rows
+	 * @throws SolverException
+	 */
+	public void addAll(List<Row> rows, List<String> names) throws SolverException {
+		for (int r = 0; r < rows.size(); r++) {
+			Row row = rows.get(r);
+			requested++;
+			if (!this.rows.add(row))
+				continue;
+			solver.addConstraint(row.expr(), row.sense, row.rhs, null);
+			added.add(row);
+			this.names.add(names.get(r));
+		}
+	}
+
+	public boolean addEq(LinearExpr expr, double rhs, String name) throws SolverException {
+		return add(expr, Sense.EQ, rhs, name);
+	}
+
+	public boolean addGe(LinearExpr expr, double rhs, String name) throws SolverException {
+		return add(expr, Sense.GE, rhs, name);
+	}
+
+	public boolean addLe(LinearExpr expr, double rhs, String name) throws SolverException {
+		return add(expr, Sense.LE, rhs, name);
+	}
+
+	/**
+	 * give the solver the names of the rows added since the last call
+	 *
+	 * @throws SolverException
+	 */
+	public void nameRows() throws SolverException {
+		for (; named < names.size(); named++) {
+			if (names.get(named) != null)
+				solver.setRowName(named, names.get(named));
+		}
+	}
+
+	/**
+	 * the rows added since the last clear, in order
+	 */
+	public List<Row> getRows() { return added; }
+
+	/**
+	 * the names of the rows added since the last clear
+	 */
+	public List<String> getNames() { return names; }
+
+	/**
+	 * remove the rows added after the first size, when the solver's model is
+	 * truncated to them
+	 *
+	 * @param size
+	 */
+	public void truncate(int size) {
+		for (int r = added.size() - 1; r >= size; r--) {
+			rows.remove(added.remove(r));
+			names.remove(r);
+		}
+		named = Math.min(named, size);
+		requested = size;
+	}
+
+	/**
+	 * number of rows requested since the last clear
+	 */
+	public int getRequested() { return requested; }
+
+	/**
+	 * number of rows added to the solver since the last clear
+	 */
+	public int getAdded() { return rows.size(); }
+
+	/**
+	 * forget the rows, when the solver's model is cleared
+	 */
+	public void clear() {
+		rows.clear();
+		added.clear();
+		names.clear();
+		named = 0;
+		requested = 0;
+	}
+}
@@ -0,0 +1,206 @@
+package research.compression;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import ilog.concert.*;
+import ilog.cplex.IloCplex;
+
+/**
+ * solves compression ILPs with ILOG CPLEX
+ * 
+ * @author Courtney Napoles
+ * 
+ */
+public class CplexSolver extends CompressionSolver {
+	IloCplex cplex;
+	ArrayList<IloIntVar> vars = new ArrayList<IloIntVar>();
+	ArrayList<IloRange> ranges = new ArrayList<IloRange>(); // constraints
+	IloObjective objective;
+	int numConstraints = 0;
+
+	public CplexSolver() throws SolverException {
+		try {
+			cplex = new IloCplex();
+		} catch (IloException e) {
+			throw new SolverException("Error loading CPLEX", e);
+		}
+		cplex.setOut(System.err);
+	}
+
+	public int boolVar(String name) throws SolverException {
+		try {
+			IloIntVar v = cplex.boolVar();
+			if (name != null)
+				v.setName(name);
+			vars.add(v);
+			return vars.size() - 1;
+		} catch (IloException e) {
+			throw new SolverException("Error creating variable " + name, e);
+		}
+	}
+
+	IloLinearNumExpr convert(LinearExpr expr) throws IloException {
+		IloLinearNumExpr e = cplex.linearNumExpr();
+		for (int i = 0; i < expr.size(); i++)
+			e.addTerm(expr.getCoef(i), vars.get(expr.getVar(i)));
+		return e;
+	}
+
+	public void addConstraint(LinearExpr expr, Sense sense, double rhs,
+			String name) throws SolverException {
+		try {
+			switch (sense) {
+			case EQ: ranges.add(cplex.addEq(convert(expr), rhs, name)); break;
+			case GE: ranges.add(cplex.addGe(convert(expr), rhs, name)); break;
+			case LE: ranges.add(cplex.addLe(convert(expr), rhs, name)); break;
+			}
+			numConstraints++;
+		} catch (IloException e) {
+			throw new SolverException("Error adding constraint " + name, e);
+		}
+	}
+
+	public void setName(int var, String name) {
+		vars.get(var).setName(name);
+	}
+
+	public void setRowName(int row, String name) {
+		ranges.get(row).setName(name);
+	}
+
+	public void maximize(LinearExpr expr) throws SolverException {
+		try {
+			if (objective == null)
+				objective = cplex.addMaximize(convert(expr));
+			else objective.setExpr(convert(expr));
+		} catch (IloException e) {
+			throw new SolverException("Error adding objective", e);
+		}
+	}
+
+	public void setTimeLimit(double seconds) throws SolverException {
+		try {
+			cplex.setParam(IloCplex.DoubleParam.TiLim, seconds > 0 ? seconds : 1e75);
+		} catch (IloException e) {
+			throw new SolverException("Error setting the time limit", e);
+		}
+	}
+
+	public void setNodeLimit(int nodes) throws SolverException {
+		try {
+			cplex.setParam(IloCplex.IntParam.NodeLim, nodes > 0 ? nodes : Integer.MAX_VALUE);
+		} catch (IloException e) {
+			throw new SolverException("Error setting the node limit", e);
+		}
+	}
+
+	public void setGap(double gap) throws SolverException {
+		try {
+			cplex.setParam(IloCplex.DoubleParam.EpGap, gap);
+		} catch (IloException e) {
+			throw new SolverException("Error setting the MIP gap", e);
+		}
+	}
+
+	public void setStart(double[] values) throws SolverException {
+		try {
+			if (cplex.getNMIPStarts() > 0)
+				cplex.deleteMIPStarts(0, cplex.getNMIPStarts());
+			cplex.addMIPStart(vars.toArray(new IloNumVar[vars.size()]), values);
+		} catch (IloException e) {
+			throw new SolverException("Error adding MIP start", e);
+		}
+	}
+
+	public boolean solve() throws SolverException {
+		try {
+			return cplex.solve();
+		} catch (IloException e) {
+			throw new SolverException("Error solving model", e);
+		}
+	}
+
+	public double getValue(int var) throws SolverException {
+		try {
+			return cplex.getValue(vars.get(var));
+		} catch (IloException e) {
+			throw new SolverException("No solution", e);
+		}
+	}
+
+	public boolean isOptimal() throws SolverException {
+		try {
+			return cplex.getStatus() == IloCplex.Status.Optimal;
+		} catch (IloException e) {
+			throw new SolverException("Unable to determine CPLEX status", e);
+		}
+	}
+
+	public String getStatus() throws SolverException {
+		try {
+			IloCplex.Status status = cplex.getStatus();
+			if (status == IloCplex.Status.Optimal)
+				return status.toString();
+			return status + " (" + cplex.getCplexStatus() + ")";
+		} catch (IloException e) {
+			throw new SolverException("Unable to determine CPLEX status", e);
+		}
+	}
+
+	public int getNumNodes() throws SolverException {
+		try {
+			return cplex.getNnodes();
+		} catch (IloException e) {
+			throw new SolverException("Unable to determine CPLEX node count", e);
+		}
+	}
+
+	public void clear() throws SolverException {
+		try {
+			cplex.clearModel();
+			vars.clear();
+			ranges.clear();
+			objective = null;
+			numConstraints = 0;
+		} catch (IloException e) {
+			throw new SolverException("Error clearing model", e);
+		}
+	}
+
+	public void truncate(int vars, int rows) throws SolverException {
+		try {
+			List<IloRange> removed = ranges.subList(rows, ranges.size());
+			cplex.remove(removed.toArray(new IloRange[removed.size()]));
+			removed.clear();
+			List<IloIntVar> dropped = this.vars.subList(vars, this.vars.size());
+			if (!dropped.isEmpty())
+				cplex.delete(dropped.toArray(new IloIntVar[dropped.size()]));
+			dropped.clear();
+			if (objective != null)
+				objective.clearExpr();
+			if (cplex.getNMIPStarts() > 0)
+				cplex.deleteMIPStarts(0, cplex.getNMIPStarts());
+			numConstraints = rows;
+		} catch (IloException e) {
+			throw new SolverException("Error truncating model", e);
+		}
+	}
+
+	public void exportModel(String file) throws SolverException {
+		try {
+			cplex.exportModel(file);
+		} catch (IloException e) {
+			throw new SolverException("Error exporting model to " + file, e);
+		}
+	}
+
+	public void setOut(PrintStream out) {
+		cplex.setOut(out);
+	}
+
+	public int getNumVariables() { return vars.size(); }
+
+	public int getNumConstraints() { return numConstraints; }
+}
@@ -0,0 +1,42 @@
+package research.compression;
+
+import java.util.Arrays;
+
+/**
+ * a linear expression over the variables of a CompressionSolver, stored as
+ * parallel arrays of variable indices and coefficients
+ * 
+ * @author Courtney Napoles
+ * 
+ */
+public class LinearExpr {
+	int[] vars = new int[8];
+	double[] coefs = new double[8];
+	int size = 0;
+
+	public LinearExpr() {}
+
+	/**
+	 * add coef * var to the expression (a variable may appear more than once)
+	 * 
+	 * @param coef
+	 * @param var
+	 */
+	public void addTerm(double coef, int var) {
+		if (size == vars.length) {
+			vars = Arrays.copyOf(vars, size * 2);
+			coefs = Arrays.copyOf(coefs, size * 2);
+		}
+		vars[size] = var;
+		coefs[size] = coef;
+		size++;
+	}
+
+	public void clear() { size = 0; }
+
+	public int size() { return size; }
+
+	public int getVar(int i) { return vars[i]; }
+
+	public double getCoef(int i) { return coefs[i]; }
+}
@@ -0,0 +1,179 @@
+package research.compression;
+
+import java.util.Arrays;
+
+import research.lib.MyBerkeleyLm;
+
+/**
+ * The LM scores of the n-grams of one sentence that a compression may
+ * contain. Tokens are looked up in the lm once per sentence, and each score is
+ * computed with the lm's int[] interface the first time it is needed and kept
+ * in a table, so building the objective does not allocate per n-gram. The
+ * tables are reused from one sentence to the next.
+ *
+ * With a window w, the tables only hold the n-grams whose consecutive tokens
+ * are at most w apart (or that start with <s>), so they take n*w*w doubles
+ * instead of n^3. The scores of other n-grams, which are only needed for the
+ * threshold of trigram pruning, are kept in a hash table.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class LmScoreTable {
+	MyBerkeleyLm lm;
+	int n; // length of the sentence (tokens, including <s>)
+	int w; // largest distance between consecutive tokens in the tables
+	int[] ids = new int[0]; // lm id of each token
+	int endId; // lm id of </s>
+	int[] ngram = new int[3];
+	double[] start = new double[0]; // lp(<s>, k)
+	double[] end = new double[0]; // lp(i, j, </s>), NaN until computed
+	double[] trigram = new double[0]; // lp(i, j, k), NaN until computed
+	long[] keys = new long[64]; // n-grams outside the window (-1 for none)
+	double[] values = new double[64]; // and their scores
+	int size; // number of n-grams in keys
+
+	public LmScoreTable(MyBerkeleyLm lm) {
+		this.lm = lm;
+		endId = lm.getId("</s>");
+		Arrays.fill(keys, -1);
+	}
+
+	/**
+	 * look up the tokens of a new sentence, the first of which is <s>, with
+	 * no window
+	 *
+	 * @param tokens
+	 */
+	public void setSentence(String[] tokens) {
+		setSentence(tokens, 0);
+	}
+
+	/**
+	 * look up the tokens of a new sentence, the first of which is <s>
+	 *
+	 * @param tokens
+	 * @param window
+	 *            largest distance between consecutive tokens of the n-grams
+	 *            mostly scored (0 for all)
+	 */
+	public void setSentence(String[] tokens, int window) {
+		n = tokens.length;
+		w = window <= 0 || window > n ? n : window;
+		if (ids.length < n) {
+			ids = new int[n];
+			start = new double[n];
+		}
+		for (int i = 0; i < n; i++)
+			ids[i] = lm.getId(tokens[i]);
+		for (int k = 1; k < n; k++)
+			start[k] = score(ids[0], ids[k], -1);
+		int pairs = n * (w + 1);
+		if (end.length < pairs)
+			end = new double[pairs];
+		Arrays.fill(end, 0, pairs, Double.NaN);
+		if (trigram.length < pairs * w)
+			trigram = new double[pairs * w];
+		Arrays.fill(trigram, 0, pairs * w, Double.NaN);
+		if (size > 0) {
+			Arrays.fill(keys, -1);
+			size = 0;
+		}
+	}
+
+	/**
+	 * lp(<s>, k): token k starts the compression
+	 */
+	public double start(int k) {
+		return start[k];
+	}
+
+	/**
+	 * lp(i, j, </s>): bigram <i,j> ends the compression
+	 */
+	public double end(int i, int j) {
+		int t = pair(i, j);
+		if (t < 0)
+			return lookUp(i, j, n);
+		if (Double.isNaN(end[t]))
+			end[t] = score(ids[i], ids[j], endId);
+		return end[t];
+	}
+
+	/**
+	 * lp(i, j, k)
+	 */
+	public double trigram(int i, int j, int k) {
+		int t = pair(i, j);
+		if (t < 0 || k - j > w)
+			return lookUp(i, j, k);
+		t = t * w + k - j - 1;
+		if (Double.isNaN(trigram[t]))
+			trigram[t] = score(ids[i], ids[j], ids[k]);
+		return trigram[t];
+	}
+
+	/**
+	 * the index of the bigram <i,j> in the tables, or -1 if it is outside the
+	 * window
+	 */
+	int pair(int i, int j) {
+		if (i == 0)
+			return j * (w + 1);
+		if (j - i > w)
+			return -1;
+		return j * (w + 1) + j - i;
+	}
+
+	/**
+	 * the score of an n-gram outside the window, from the hash table (k = n
+	 * for </s>)
+	 */
+	double lookUp(int i, int j, int k) {
+		long key = ((long) i * n + j) * (n + 1) + k;
+		int mask = keys.length - 1;
+		int h = (int) (key ^ (key >>> 29)) * 0x9E3779B9 & mask;
+		while (keys[h] != -1) {
+			if (keys[h] == key)
+				return values[h];
+			h = (h + 1) & mask;
+		}
+		double d = score(ids[i], ids[j], k == n ? endId : ids[k]);
+		keys[h] = key;
+		values[h] = d;
+		if (++size * 2 > keys.length)
+			grow();
+		return d;
+	}
+
+	/**
+	 * double the hash table
+	 */
+	void grow() {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new double[keys.length];
+		Arrays.fill(keys, -1);
+		int mask = keys.length - 1;
+		for (int o = 0; o < oldKeys.length; o++) {
+			long key = oldKeys[o];
+			if (key == -1) continue;
+			int h = (int) (key ^ (key >>> 29)) * 0x9E3779B9 & mask;
+			while (keys[h] != -1)
+				h = (h + 1) & mask;
+			keys[h] = key;
+			values[h] = oldValues[o];
+		}
+	}
+
+	/**
+	 * score the trigram <a,b,c>, or the bigram <a,b> if c < 0
+	 */
+	double score(int a, int b, int c) {
+		ngram[0] = a;
+		ngram[1] = b;
+		ngram[2] = c;
+		return lm.getLogProb(ngram, 0, c < 0 ? 2 : 3);
+	}
+}
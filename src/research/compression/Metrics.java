@@ -0,0 +1,161 @@
+package research.compression;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the timings and model sizes of each compressed sentence (including
+ * the number of rows requested before duplicates were removed) and summarizes
+ * them: the mean, median, 95th and 99th percentiles and maximum of each
+ * measure, and the number of sentences with each solver status. The summary is
+ * printed to stderr and written to a file as JSON (if the file name ends with
+ * .json) or CSV. Records may be added by several threads.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class Metrics {
+	// the measures summarized, in the order of the values of a Record
+	static final String[] MEASURES = { "parse_ms", "lm_ms", "build_ms",
+			"solve_ms", "total_ms", "variables", "rows_requested",
+			"constraints", "nodes" };
+
+	/**
+	 * the timings (ns) and model size of the compression of one sentence
+	 */
+	public static class Record {
+		long parseTime, lmTime, buildTime, solveTime, totalTime;
+		// rows requested, and constraints left after removing duplicates
+		int variables, requested, constraints, nodes;
+		String status = "None";
+
+		double[] values() {
+			return new double[] { parseTime / 1e6, lmTime / 1e6,
+					buildTime / 1e6, solveTime / 1e6, totalTime / 1e6,
+					variables, requested, constraints, nodes };
+		}
+
+		void clear() {
+			parseTime = lmTime = buildTime = solveTime = totalTime = 0;
+			variables = requested = constraints = nodes = 0;
+			status = "None";
+		}
+	}
+
+	String file; // where to write the summary (null for stderr only)
+	double[][] values = new double[MEASURES.length][1024]; // measure, sentence
+	int count = 0;
+	Map<String,Integer> statuses = new TreeMap<String,Integer>();
+	long start = System.nanoTime();
+
+	public Metrics(String file) {
+		this.file = file;
+	}
+
+	public synchronized void add(Record r) {
+		if (count == values[0].length) {
+			for (int m = 0; m < values.length; m++)
+				values[m] = Arrays.copyOf(values[m], count * 2);
+		}
+		double[] v = r.values();
+		for (int m = 0; m < v.length; m++)
+			values[m][count] = v[m];
+		count++;
+		Integer c = statuses.get(r.status);
+		statuses.put(r.status, c == null ? 1 : c + 1);
+	}
+
+	/**
+	 * the p-th percentile (nearest rank) of sorted values
+	 */
+	static double percentile(double[] sorted, double p) {
+		if (sorted.length == 0) return 0;
+		int rank = (int) Math.ceil(p / 100 * sorted.length);
+		return sorted[Math.max(rank, 1) - 1];
+	}
+
+	/**
+	 * count, mean, p50, p95, p99 and max of each measure
+	 */
+	double[][] summarize() {
+		double[][] summary = new double[MEASURES.length][];
+		for (int m = 0; m < MEASURES.length; m++) {
+			double[] sorted = Arrays.copyOf(values[m], count);
+			Arrays.sort(sorted);
+			double sum = 0;
+			for (double v : sorted)
+				sum += v;
+			summary[m] = new double[] { count, count == 0 ? 0 : sum / count,
+					percentile(sorted, 50), percentile(sorted, 95),
+					percentile(sorted, 99), count == 0 ? 0 : sorted[count - 1] };
+		}
+		return summary;
+	}
+
+	/**
+	 * print the summary to stderr and write it to the metrics file
+	 */
+	public synchronized void write() {
+		double[][] summary = summarize();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		PrintStream err = System.err;
+		err.println(String.format("Metrics: %d sentences in %.1f s (%.2f sentences/s)",
+				count, seconds, count / seconds));
+		err.println(String.format("%-14s %10s %10s %10s %10s %10s", "", "mean",
+				"p50", "p95", "p99", "max"));
+		for (int m = 0; m < MEASURES.length; m++)
+			err.println(String.format("%-14s %10.1f %10.1f %10.1f %10.1f %10.1f",
+					MEASURES[m], summary[m][1], summary[m][2], summary[m][3],
+					summary[m][4], summary[m][5]));
+		err.println("Solver status: " + statuses);
+		if (file == null) return;
+		try {
+			PrintWriter pw = new PrintWriter(file);
+			if (file.endsWith(".json"))
+				writeJson(pw, summary, seconds);
+			else writeCsv(pw, summary);
+			pw.close();
+		} catch (FileNotFoundException e) {
+			System.err.println("Error writing metrics to " + file + ": "
+					+ e.getMessage());
+		}
+	}
+
+	void writeJson(PrintWriter pw, double[][] summary, double seconds) {
+		pw.println("{");
+		pw.println("  \"sentences\": " + count + ",");
+		pw.println("  \"seconds\": " + seconds + ",");
+		pw.println("  \"sentences_per_second\": " + count / seconds + ",");
+		pw.print("  \"status\": {");
+		String sep = "";
+		for (Map.Entry<String,Integer> e : statuses.entrySet()) {
+			pw.print(sep + "\"" + e.getKey() + "\": " + e.getValue());
+			sep = ", ";
+		}
+		pw.println("},");
+		for (int m = 0; m < MEASURES.length; m++) {
+			double[] s = summary[m];
+			pw.println("  \"" + MEASURES[m] + "\": {\"mean\": " + s[1]
+					+ ", \"p50\": " + s[2] + ", \"p95\": " + s[3] + ", \"p99\": "
+					+ s[4] + ", \"max\": " + s[5] + "}"
+					+ (m + 1 < MEASURES.length ? "," : ""));
+		}
+		pw.println("}");
+	}
+
+	void writeCsv(PrintWriter pw, double[][] summary) {
+		pw.println("measure,count,mean,p50,p95,p99,max");
+		for (int m = 0; m < MEASURES.length; m++) {
+			StringBuilder sb = new StringBuilder(MEASURES[m]);
+			for (double v : summary[m])
+				sb.append("," + v);
+			pw.println(sb);
+		}
+		for (Map.Entry<String,Integer> e : statuses.entrySet())
+			pw.println("status=" + e.getKey() + "," + e.getValue() + ",,,,,");
+	}
+}
@@ -4,6 +4,10 @@ import java.io.*;
 import java.text.DecimalFormat;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import research.lib.*;
 
@@ -15,12 +19,15 @@ import research.lib.*;
  * @author Courtney Napoles
  * 
  */
-public class SentenceCompressor {
+public class SentenceCompressor implements Cloneable {
 	// various paths
 	String lmModelFile = null; // path to lm model
 	String cplexModelFile = null; // optional path to save CPLEX model
 	String lengthfile; // optional file containing list of target lengths
 	String testfile = null; // path to sentences to compress
+	String parseCacheFile = null; // optional path to the parse cache
+	String metricsFile = null; // optional path to the metrics summary
+	boolean collectMetrics = false; // time each stage of each sentence
 
 	// settings
 	boolean strictConstraints = false; // use specific target token length
@@ -30,24 +37,64 @@ public class SentenceCompressor {
 	boolean ngramConstraint = false; // only consider n-grams seen in Google
 	String host = "a05"; // hostname of optional lm server
 							// n-grams
+	String ngramIndexFile = null; // optional n-gram index (or Bloom filter,
+	// .bloom) used instead of the server
 	boolean rawText = true; // format is raw text (not XML)
 	double minCR = 0.4; // minimum compression rate (length output / length
 						// input)
 	double lambda = 1.4; // weight for significance score
 	boolean debug = false;
 	boolean quiet = false; // suppress cplex output
+	boolean grammarConstraints = true; // use dependency and clause constraints
+	String decoder = "ilp"; // how to find compressions (ilp, dp, beam or
+	// greedy)
+	int beamWidth = 16; // hypotheses of each length kept by the beam search
+	String solver = "cplex"; // ILP solver (cplex or bb)
+	int window = 0; // max distance between the tokens of a trigram (0 = all)
+	double trigramThreshold = Double.POSITIVE_INFINITY; // keep trigrams
+	// outside the window with at least this log prob
+	int templates = 8; // sentence and target lengths whose ILP template is
+	// kept per thread (0 = none)
+	double timeLimit = 0; // seconds the solver may spend on a sentence (0 =
+	// no limit)
+	int nodeLimit = 0; // branch-and-bound nodes per sentence (0 = no limit)
+	double gap = -1; // relative MIP gap (< 0 = the solver's default)
+	String fallback = "dp"; // how to compress a sentence if the ILP finds no
+	// solution within the limits (dp, beam, greedy or none)
+	String reason; // why the last compression is not an optimal ILP solution
+	// (null if it is)
+	int threads = 1; // number of sentences compressed in parallel
+	int parseThreads = 0; // number of sentences parsed in parallel (0 = the
+	// same as threads)
+	boolean longestFirst = true; // with several threads, compress the
+	// sentences in decreasing order of estimated cost (or else in input order)
+	int streamSize = 0; // if > 0, read and compress the input this many
+	// sentences at a time
+	int port = 0; // if > 0, serve compression requests on this port
 	// statistics relevant to sentence being compressed
 	// int n,charLength[], b; // n is length of sentence in words, t is length
 	// constraint in char, b is length constraint in words
 	String pis[];
-	HashMap<String,Integer> zeta, targetLengths;
+	HashMap<String,Integer> targetLengths;
 	List<Document> documents;
 	// counts etc for significance model
 
 	MyBerkeleyLm lm; // lm for querying n-gram probabilities
 	CompressionModel lpp; // this is where the magic happens
+	ViterbiCompressor dp; // exact dynamic program, when applicable
+	BeamCompressor beam; // approximate beam search, with -decoder=beam or
+	// greedy
+	Compressor fallbackCompressor; // for sentences the ILP finds no solution
+	// for
 	ArrayList<Sentence> testSentences; // list of sentences to compress
 	String compression;
+	List<SentenceCompressor> workers = new ArrayList<SentenceCompressor>(); // one
+	// per thread, each with its own ILP and dynamic program
+	ExecutorService pool; // runs the workers
+	ParseCache parseCache; // parses of sentences seen in earlier runs
+	NgramLookup ngrams; // n-gram server or index, for the n-gram constraint
+	ThreadLocal<SentenceCompressor> localWorker; // the worker of each thread
+	Metrics metrics; // timings of the sentences compressed by all threads
 
 	public static void main(String[] args) {
 		SentenceCompressor sentenceCompressor = new SentenceCompressor();
@@ -55,7 +102,9 @@ public class SentenceCompressor {
 
 		try {
 			sentenceCompressor.initialize();
-			sentenceCompressor.compressSentences();
+			if (sentenceCompressor.port > 0)
+				sentenceCompressor.serve();
+			else sentenceCompressor.compressSentences();
 		} catch (Exception e) {
 			System.err.println("Error: " + e.getMessage());
 			e.printStackTrace();
@@ -71,6 +120,10 @@ public class SentenceCompressor {
 			else if (opt.startsWith("-l="))	lambda = Double.parseDouble(opt.replace("-l=",""));
 			else if (opt.startsWith("-lm="))
 				lmModelFile = opt.replace("-lm=", "");
+			else if (opt.startsWith("-ngram=")) {
+				ngramConstraint = true;
+				ngramIndexFile = opt.replace("-ngram=", "");
+			}
 			else if (opt.startsWith("-ngram")) ngramConstraint=true;
 			else if (opt.startsWith("-target=")) {
 				lengthfile = opt.replace("-target=","");
@@ -79,6 +132,95 @@ public class SentenceCompressor {
 			else if (opt.startsWith("-test_lambda")) testLambda = true;
 			else if (opt.startsWith("-tweet")) twitter = true;
 			else if (opt.startsWith("-xml")) rawText = false;
+			else if (opt.startsWith("-decoder=")) {
+				decoder = opt.replace("-decoder=", "");
+				if (!decoder.matches("ilp|dp|beam|greedy")) {
+					System.err.println("Invalid decoder: " + decoder);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-beam=")) {
+				beamWidth = Integer.parseInt(opt.replace("-beam=", ""));
+				if (beamWidth < 1) {
+					System.err.println("Invalid beam width: " + beamWidth);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-solver=")) {
+				solver = opt.replace("-solver=", "");
+				if (!solver.equals("cplex") && !solver.equals("bb")) {
+					System.err.println("Invalid solver: " + solver);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-window="))
+				window = Integer.parseInt(opt.replace("-window=", ""));
+			else if (opt.startsWith("-lm_threshold="))
+				trigramThreshold = Double.parseDouble(opt.replace("-lm_threshold=", ""));
+			else if (opt.startsWith("-templates=")) {
+				templates = Integer.parseInt(opt.replace("-templates=", ""));
+				if (templates < 0) {
+					System.err.println("Invalid number of templates: " + templates);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-time_limit="))
+				timeLimit = Double.parseDouble(opt.replace("-time_limit=", ""));
+			else if (opt.startsWith("-node_limit="))
+				nodeLimit = Integer.parseInt(opt.replace("-node_limit=", ""));
+			else if (opt.startsWith("-gap="))
+				gap = Double.parseDouble(opt.replace("-gap=", ""));
+			else if (opt.startsWith("-fallback=")) {
+				fallback = opt.replace("-fallback=", "");
+				if (!fallback.matches("dp|beam|greedy|none")) {
+					System.err.println("Invalid fallback: " + fallback);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-threads=")) {
+				threads = Integer.parseInt(opt.replace("-threads=", ""));
+				if (threads < 1) {
+					System.err.println("Invalid number of threads: " + threads);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-schedule=")) {
+				String schedule = opt.replace("-schedule=", "");
+				if (!schedule.matches("longest|input")) {
+					System.err.println("Invalid schedule: " + schedule);
+					System.exit(2);
+				}
+				longestFirst = schedule.equals("longest");
+			}
+			else if (opt.startsWith("-parse_threads=")) {
+				parseThreads = Integer.parseInt(opt.replace("-parse_threads=", ""));
+				if (parseThreads < 1) {
+					System.err.println("Invalid number of parse threads: " + parseThreads);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-stream=")) {
+				streamSize = Integer.parseInt(opt.replace("-stream=", ""));
+				if (streamSize < 1) {
+					System.err.println("Invalid stream block size: " + streamSize);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-server=")) {
+				port = Integer.parseInt(opt.replace("-server=", ""));
+				if (port < 1) {
+					System.err.println("Invalid port: " + port);
+					System.exit(2);
+				}
+			}
+			else if (opt.startsWith("-parse_cache="))
+				parseCacheFile = opt.replace("-parse_cache=", "");
+			else if (opt.startsWith("-nogrammar")) grammarConstraints = false;
+			else if (opt.equals("-metrics")) collectMetrics = true;
+			else if (opt.startsWith("-metrics=")) {
+				collectMetrics = true;
+				metricsFile = opt.replace("-metrics=", "");
+			}
 			else if (opt.startsWith("-debug"))
 				debug = true;
 			else if (opt.startsWith("-quiet"))
@@ -88,8 +230,17 @@ public class SentenceCompressor {
 				System.exit(2);
 			}
 		}
-		if (testfile == null || lmModelFile == null) {
-			System.err.println("Must specify input -in=val and language model file -lm=val");
+		if ((testfile == null && port == 0) || lmModelFile == null) {
+			System.err.println("Must specify input -in=val (or -server=val) and language model file -lm=val");
+			System.exit(2);
+		}
+		if (port > 0 && streamSize > 0) {
+			System.err.println("-stream cannot be used with -server");
+			System.exit(2);
+		}
+		// the target lengths are looked up by the ids of the input sentences
+		if (port > 0 && (strictConstraints || charConstraints)) {
+			System.err.println("-target and -char cannot be used with -server");
 			System.exit(2);
 		}
 	}
@@ -101,18 +252,30 @@ public class SentenceCompressor {
 	 * @throws Exception
 	 */
 	public void initialize() throws Exception {
-		// load the documents
+		// load the documents, unless they are read while compressing
 		testSentences = new ArrayList<Sentence>();
 		if (debug) {
 			Sentence.debug = true;
 		}
-		documents = new DocumentImporter().loadDocuments(testfile, rawText);
-		for (Document d : documents) {
-			d.getTopicWordData();
-			// save all sents to test sent array
-			testSentences.addAll(d.getSentences());
+		if (parseCacheFile != null)
+			parseCache = new ParseCache(parseCacheFile);
+		if (collectMetrics)
+			metrics = new Metrics(metricsFile);
+		if (parseThreads == 0)
+			parseThreads = threads;
+		if (streamSize == 0 && port == 0) {
+			DocumentImporter importer = new DocumentImporter();
+			importer.setParseCache(parseCache);
+			importer.setParseThreads(parseThreads);
+			documents = importer.loadDocuments(testfile, rawText);
+			importer.close();
+			for (Document d : documents) {
+				d.getTopicWordData();
+				// save all sents to test sent array
+				testSentences.addAll(d.getSentences());
+			}
+			System.err.println(testSentences.size() + " sents loaded");
 		}
-		System.err.println(testSentences.size() + " sents loaded");
 
 		// load the language model
 		lm = new MyBerkeleyLm(lmModelFile);
@@ -134,138 +297,499 @@ public class SentenceCompressor {
 			}
 		}
 
-		// initialize the ILP
-		lpp = new CompressionModel(lm, lambda, cplexModelFile, minCR);
-		lpp.defineSettings(twitter, strictConstraints, charConstraints,
-				ngramConstraint);
-		lpp.suppressCplexOutput(quiet);
-		lpp.writeSentenceModels(debug);
+		// only if using Google n-gram constraint (the n-grams of each sentence
+		// are looked up when it is compressed)
+		if (ngramConstraint)
+			loadNgrams();
+
+		// with several threads, each worker creates its own compressors and
+		// lm cache, so keep the caches small
+		if (threads > 1)
+			lm.setCacheBits(20);
+		else if (port == 0)
+			initializeCompressors();
+	}
 
-		// only if using Google n-gram constraint
-		if (ngramConstraint) {
-			loadZetas();
-			lpp.setZetas(zeta);
+	/**
+	 * initialize the ILP, unless all sentences may be handled by the dynamic
+	 * program or the beam search (the solver is then only loaded if it is
+	 * needed)
+	 */
+	void initializeCompressors() {
+		if (decoder.equals("dp")) {
+			dp = new ViterbiCompressor(lm, lambda, minCR);
+			configure(dp);
+		}
+		else if (decoder.equals("beam") || decoder.equals("greedy")) {
+			beam = newBeam(decoder);
 		}
+		else getModel();
+	}
 
+	/**
+	 * create the beam search, or the greedy search (a beam of width 1)
+	 * 
+	 * @param type
+	 *            beam or greedy
+	 * @return
+	 */
+	BeamCompressor newBeam(String type) {
+		BeamCompressor b = new BeamCompressor(lm, lambda, minCR,
+				type.equals("greedy") ? 1 : beamWidth);
+		configure(b);
+		return b;
 	}
 
 	/**
-	 * boolean indicator if using the Google n-gram constraint (1 if the ngram
-	 * appears in Google n-grams, 0 otherwise). Note: requires n-gram server to
-	 * be running.
+	 * create a compressor for a worker thread, sharing the settings, lm and
+	 * sentences of this one but with its own ILP and dynamic program
+	 * 
+	 * @return
 	 */
-	public void loadZetas() {
-		SocketClient ngramServer = null;
+	SentenceCompressor newWorker() {
+		SentenceCompressor worker;
 		try {
-			ngramServer = new SocketClient(host,8888);
-		} catch (Exception e) {
-			System.err.println("Error connecting to the n-gram server ("+host+"). Exiting.");
-			e.printStackTrace();
-			System.exit(-1);
+			worker = (SentenceCompressor) clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
 		}
-		zeta = new HashMap<String,Integer>();
-		for (String s : generateTrigrams()) {
-			zeta.put(s,ngramServer.hasNgram(s));
+		worker.lpp = null;
+		worker.dp = null;
+		worker.beam = null;
+		worker.fallbackCompressor = null;
+		worker.workers = null;
+		worker.pool = null;
+		worker.localWorker = null;
+		worker.initializeCompressors();
+		synchronized (workers) {
+			workers.add(worker);
 		}
-		ngramServer.close();
+		return worker;
+	}
+
+	/**
+	 * apply the current settings to the compressors created so far
+	 */
+	void reconfigure() {
+		if (dp != null) configure(dp);
+		if (beam != null) configure(beam);
+		if (fallbackCompressor != null) configure(fallbackCompressor);
+		if (lpp != null) configure(lpp);
 	}
 
 	/**
-	 * generate all possible trigrams from the sentences for querying the n-gram
-	 * server (if using Google n-gram constraint)
+	 * apply the settings to a compressor
+	 * 
+	 * @param c
+	 */
+	void configure(Compressor c) {
+		c.defineSettings(twitter, strictConstraints, charConstraints,
+				ngramConstraint);
+		c.setLambda(lambda);
+		c.setMinCR(minCR);
+		c.useGrammarConstraints(grammarConstraints);
+		c.setTrigramPruning(window, trigramThreshold);
+		c.writeSentenceModels(debug);
+		if (ngramConstraint)
+			c.setNgrams(ngrams);
+	}
+
+	/**
+	 * return the ILP, initializing it if necessary
 	 * 
 	 * @return
 	 */
-	public HashSet<String> generateTrigrams() {
-		HashSet<String> allNgrams = new HashSet<String>();
-		for (Document doc : documents) {
-			for (Sentence sent : doc.getSentences()) {
-				for (int i = 0; i < sent.length(); i++) {
-					allNgrams.add(sent.getToken(i));
-					allNgrams.add("<s> " + sent.getToken(i));
-					for (int j = i + 1; j < sent.length(); j++) {
-						for (int k = j + 1; k < sent.length(); k++) {
-							allNgrams
-									.add(sent.getToken(i) + " "
-											+ sent.getToken(j) + " "
-											+ sent.getToken(k));
-						}
-					}
-				}
+	CompressionModel getModel() {
+		if (lpp == null) {
+			lpp = new CompressionModel(lm, lambda, cplexModelFile, minCR,
+					solver);
+			configure(lpp);
+			lpp.setTemplateCapacity(templates);
+			try {
+				lpp.setLimits(timeLimit, nodeLimit, gap);
+			} catch (SolverException e) {
+				System.err.println("Error setting the solver limits");
+				e.printStackTrace();
 			}
+			lpp.suppressSolverOutput(quiet);
 		}
-		return allNgrams;
+		return lpp;
+	}
+
+	/**
+	 * choose how to compress this sentence: the dynamic program if it was
+	 * requested and it is exact for this sentence, the ILP otherwise
+	 * 
+	 * @param sent
+	 * @return
+	 */
+	Compressor selectCompressor(Sentence sent) {
+		if (beam != null)
+			return beam;
+		if (dp != null && dp.canCompress(sent))
+			return dp;
+		if (dp != null && debug)
+			System.err.println("Grammar constraints apply to sentence "
+					+ sent.getId() + ", using the ILP");
+		return getModel();
 	}
+
 	/**
-	 * solve the ILP
+	 * return the compressor for sentences that the ILP (or the beam search)
+	 * finds no solution for, initializing it if necessary, or null for none.
+	 * There is none after the dynamic program, which is exact without the
+	 * grammar constraints, or after a beam search of the same width.
+	 * 
+	 * @param c
+	 *            the compressor that found no solution
+	 * @return
+	 */
+	Compressor getFallback(Compressor c) {
+		if (fallback.equals("none") || c == dp
+				|| (c == beam && fallback.equals(decoder)))
+			return null;
+		if (fallbackCompressor == null) {
+			if (fallback.equals("dp")) {
+				fallbackCompressor = new ViterbiCompressor(lm, lambda, minCR);
+				configure(fallbackCompressor);
+			}
+			else fallbackCompressor = newBeam(fallback);
+		}
+		return fallbackCompressor;
+	}
+
+	/**
+	 * open the n-gram index, Bloom filter or server used for the Google
+	 * n-gram constraint (1 if the ngram appears in Google n-grams, 0
+	 * otherwise). Note: without an index, requires n-gram server to be
+	 * running.
+	 */
+	void loadNgrams() throws IOException {
+		if (ngramIndexFile == null)
+			ngrams = new SocketClient(host,8888);
+		else if (ngramIndexFile.endsWith(".bloom"))
+			ngrams = new BloomFilter(ngramIndexFile);
+		else ngrams = new NgramIndex(ngramIndexFile);
+	}
+
+	/**
+	 * solve the ILP (or the equivalent dynamic program)
 	 * 
 	 * @return
 	 */
 	public String findSolution(Sentence sent) {
+		long start = System.nanoTime();
+		reason = null;
 		try {
-			lpp.initializeVariables(sent);
-			lpp.createMaximization();
-			lpp.addConstraints();
-			lpp.addGlobalConstraints();
-			String s = lpp.solve();
-			compression = lpp.compression;
-			lpp.clear();
+			Compressor c = selectCompressor(sent);
+			String s = c.compress(sent);
+			compression = c.getCompression();
+			Metrics.Record stats = c.getStats();
+			if (c == lpp && !stats.status.equals("Optimal"))
+				reason = stats.status; // the best solution within the limits
+			if (s.equals("")) {
+				Compressor f = getFallback(c);
+				if (f != null) {
+					reason = fallback + " fallback: " + stats.status;
+					if (debug)
+						System.err.println("No solution for sentence "
+								+ sent.getId() + ", using the " + fallback
+								+ " fallback");
+					s = f.compress(sent);
+					compression = f.getCompression();
+					stats.solveTime += f.getStats().solveTime;
+					stats.status = reason;
+				}
+			}
+			record(sent, stats, start);
 			return s;
 		}
 		catch (Exception e) {
 			System.err.println("Error initialization ILP");
 			e.printStackTrace();
+			record(sent, null, start);
 			return "-1\t<ERROR>";
 		}
 	}
 
+	/**
+	 * solve the ILP (or the equivalent dynamic program) for each value of
+	 * lambda
+	 * 
+	 * @return
+	 */
+	String[] findSolutions(Sentence sent, double[] lambdas) {
+		long start = System.nanoTime();
+		try {
+			Compressor c = selectCompressor(sent);
+			String[] s = c.compress(sent, lambdas);
+			compression = c.getCompression();
+			record(sent, c.getStats(), start);
+			return s;
+		}
+		catch (Exception e) {
+			System.err.println("Error initialization ILP");
+			e.printStackTrace();
+			record(sent, null, start);
+			String[] s = new String[lambdas.length];
+			Arrays.fill(s, "-1\t<ERROR>");
+			return s;
+		}
+	}
+
+	/**
+	 * add the timings and model size of a compression to the metrics, if they
+	 * are collected
+	 * 
+	 * @param sent
+	 * @param stats
+	 *            null if the compression failed
+	 * @param start
+	 *            when the compression started (ns)
+	 */
+	void record(Sentence sent, Metrics.Record stats, long start) {
+		if (metrics == null) return;
+		if (stats == null) {
+			stats = new Metrics.Record();
+			stats.status = "Error";
+		}
+		stats.parseTime = sent.getParseTime();
+		stats.totalTime = System.nanoTime() - start + stats.parseTime;
+		metrics.add(stats);
+	}
+
+	/**
+	 * compress the sentences of requests sent to the port until the process
+	 * is stopped
+	 * 
+	 * @throws Exception
+	 */
+	void serve() throws Exception {
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				try {
+					if (metrics != null)
+						metrics.write();
+					if (parseCache != null)
+						parseCache.close();
+				} catch (IOException e) {
+					System.err.println("Error closing the parse cache");
+				}
+			}
+		});
+		new CompressionServer(this, port).run();
+	}
+
 	/**
 	 * for each sentence, calculate relevant statistics and call CPLEX
+	 * 
+	 * @throws Exception
+	 */
+	public void compressSentences() throws Exception {
+		try {
+			if (streamSize > 0)
+				streamSentences();
+			else {
+				System.err.println("Compressing "+testSentences.size()+" sentences...");
+				compress(testSentences);
+			}
+		} finally {
+			if (pool != null)
+				pool.shutdownNow();
+			if (parseCache != null)
+				parseCache.close();
+			if (ngrams != null)
+				ngrams.close();
+		}
+		if (window > 0 || trigramThreshold != Double.POSITIVE_INFINITY)
+			printPruningReport();
+		if (metrics != null)
+			metrics.write();
+	}
+
+	/**
+	 * read the input one block of sentences at a time, and compress and print
+	 * each block before reading the next one
+	 * 
+	 * @throws Exception
+	 */
+	void streamSentences() throws Exception {
+		System.err.println("Compressing sentences from " + testfile + ", "
+				+ streamSize + " at a time...");
+		DocumentStream stream = new DocumentStream(testfile, rawText, streamSize);
+		stream.setParseCache(parseCache);
+		stream.setParseThreads(parseThreads);
+		int count = 0;
+		Document d;
+		while ((d = stream.next()) != null) {
+			d.getTopicWordData();
+			compress(d.getSentences());
+			count += d.getSentences().size();
+			if (metrics != null)
+				metrics.write();
+		}
+		stream.close();
+		System.err.println(count + " sents compressed");
+	}
+
+	/**
+	 * compress the sentences and print the results in order
+	 * 
+	 * @param sentences
+	 * @throws Exception
 	 */
-	public void compressSentences() {
-		System.err.println("Compressing "+testSentences.size()+" sentences...");
-		// ArrayList<String> results = new ArrayList<String>();
+	void compress(List<Sentence> sentences) throws Exception {
+		if (threads > 1)
+			compressInParallel(sentences);
+		else {
+			for (Sentence sent : sentences)
+				System.out.print(compressSentence(sent));
+		}
+	}
+
+	/**
+	 * compress the sentences with a pool of threads, each with its own
+	 * compressors, and print the results in the input order. The sentences
+	 * are submitted longest first (by estimated cost), so that the long ones
+	 * do not start last and leave the other threads idle; the idle threads
+	 * take the next sentence from the queue.
+	 * 
+	 * @param sentences
+	 * @throws Exception
+	 */
+	void compressInParallel(final List<Sentence> sentences) throws Exception {
+		if (pool == null) {
+			localWorker = new ThreadLocal<SentenceCompressor>() {
+				protected SentenceCompressor initialValue() {
+					return newWorker();
+				}
+			};
+			pool = new ForkJoinPool(threads,
+					ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+		}
+		Integer[] order = new Integer[sentences.size()];
+		final double[] costs = new double[order.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+			if (longestFirst)
+				costs[i] = estimateCost(sentences.get(i));
+		}
+		// a stable sort, so sentences of the same cost stay in input order
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(costs[b], costs[a]);
+			}
+		});
+		List<Future<String>> results = new ArrayList<Future<String>>(
+				Collections.<Future<String>> nCopies(order.length, null));
+		for (final int i : order) {
+			results.set(i, pool.submit(new Callable<String>() {
+				public String call() {
+					return localWorker.get().compressSentence(sentences.get(i));
+				}
+			}));
+		}
+		for (Future<String> result : results)
+			System.out.print(result.get());
+	}
+
+	/**
+	 * the relative cost of compressing a sentence, for scheduling: the number
+	 * of trigram variables of its ILP (cubic in its length, or linear with a
+	 * window) plus a term for its dependencies, which add constraints
+	 * 
+	 * @param s
+	 * @return
+	 */
+	double estimateCost(Sentence s) {
+		double n = s.length();
+		double span = window > 0 && trigramThreshold == Double.POSITIVE_INFINITY
+				? Math.min(n, window) : n;
+		return n * span * span + n * s.numDependencies();
+	}
+
+	/**
+	 * compress one sentence and return the output lines
+	 * 
+	 * @param sent
+	 * @return
+	 */
+	String compressSentence(Sentence sent) {
+		StringWriter buffer = new StringWriter();
+		PrintWriter out = new PrintWriter(buffer);
 		HashMap<String,String> compressions;
 		String sol= "";
 		DecimalFormat df = new DecimalFormat("#.#");
-		for (Sentence sent : testSentences) {
-
-			// to test various different values of lambda
-			if (testLambda) {
-				compressions = new HashMap<String,String>();
-				for (lambda = 0.1; lambda <=2.5; lambda+=0.1) {
-					sol = findSolution(sent);
-					if (compressions.containsKey(sol))
-						compressions.put(sol, compressions.get(sol)+" "+df.format(lambda));
-					else compressions.put(sol,df.format(lambda));
-				}
-				for (Entry<String,String> e : compressions.entrySet())
-					System.out.println(e.getValue() + "\t"
-							+ sol.split("\\s+").length + "\t" + sent.length()
-							+ "\t" + e.getKey());
+
+		// to test various different values of lambda
+		if (testLambda) {
+			compressions = new HashMap<String,String>();
+			double[] lambdas = testLambdas();
+			String[] sols = findSolutions(sent, lambdas);
+			for (int i = 0; i < lambdas.length; i++) {
+				sol = sols[i];
+				if (compressions.containsKey(sol))
+					compressions.put(sol, compressions.get(sol)+" "+df.format(lambdas[i]));
+				else compressions.put(sol,df.format(lambdas[i]));
 			}
+			for (Entry<String,String> e : compressions.entrySet())
+				out.println(e.getValue() + "\t"
+						+ sol.split("\\s+").length + "\t" + sent.length()
+						+ "\t" + e.getKey());
+		}
+
+		// if not testing lambda (running as usual)
+		else {
+			int slength = sent.length() - 1; // because sent contains
+			// <s>
+			if (strictConstraints || charConstraints) {
+				selectCompressor(sent).setTargetLength(targetLengths.get(sent.getId()));
+				sol = findSolution(sent);
+				if (charConstraints) slength = sent.charLength();
 
-			// if not testing lambda (running as usual)
+				if (!sol.equals(""))
+					out.println(slength + "\t" + sol + "\t"
+							+ targetLengths.get(sent.getId())
+							+ (reason == null ? "" : "\t" + reason));
+			}
 			else {
-				int slength = sent.length() - 1; // because sent contains
-				// <s>
-				if (strictConstraints || charConstraints) {
-					lpp.setTargetLength(targetLengths.get(sent.getId()));
-					sol = findSolution(sent);
-					if (charConstraints) slength = sent.charLength();
-
-					if (sol.equals("")) continue;
-					System.out.println(slength + "\t" + sol + "\t"
-							+ targetLengths.get(sent.getId()));
-				}
-				else {
-					sol = findSolution(sent);
-					if (sol.equals("")) continue;
-					System.out.println(slength + "\t" + sol + "\t"
-							+ minCR);
-				}
+				sol = findSolution(sent);
+				if (!sol.equals(""))
+					out.println(slength + "\t" + sol + "\t"
+							+ minCR + (reason == null ? "" : "\t" + reason));
 			}
 		}
+		out.flush();
+		return buffer.toString();
+	}
+
+	/**
+	 * the values of lambda tried with -test_lambda: 0.1, 0.2, ...
+	 */
+	static double[] testLambdas() {
+		ArrayList<Double> values = new ArrayList<Double>();
+		for (double l = 0.1; l <=2.5; l+=0.1)
+			values.add(l);
+		double[] lambdas = new double[values.size()];
+		for (int i = 0; i < lambdas.length; i++)
+			lambdas[i] = values.get(i);
+		return lambdas;
+	}
+
+	/**
+	 * report how many trigram variables were pruned, over all workers
+	 */
+	void printPruningReport() {
+		long trigrams = 0, pruned = 0;
+		List<SentenceCompressor> all = new ArrayList<SentenceCompressor>(workers);
+		all.add(this);
+		for (SentenceCompressor w : all) {
+			if (w.lpp == null) continue;
+			trigrams += w.lpp.getTrigramCount();
+			pruned += w.lpp.getPrunedCount();
+		}
+		System.err.println("Pruned " + pruned + " of " + trigrams
+				+ " trigram variables");
 	}
 
 	public String getCompression() {
@@ -0,0 +1,15 @@
+package research.compression;
+
+/**
+ * thrown when a CompressionSolver cannot build or solve a model
+ * 
+ * @author Courtney Napoles
+ * 
+ */
+public class SolverException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public SolverException(String s) { super(s); }
+
+	public SolverException(String s, Throwable cause) { super(s, cause); }
+}
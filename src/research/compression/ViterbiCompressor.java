@@ -0,0 +1,247 @@
+package research.compression;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+
+import research.lib.MyBerkeleyLm;
+import research.lib.Sentence;
+
+/**
+ * Finds the optimal compression with a Viterbi-style dynamic program instead of
+ * an ILP. A compression is a path through the tokens of the sentence, and the
+ * objective of CompressionModel decomposes over the trigrams of that path, so
+ * the best path can be found over states (previous token, current token,
+ * length so far). Constraints on single tokens (brackets, pronouns), the
+ * punctuation and verb constraints, the length constraints, the n-gram
+ * constraint and trigram pruning are handled exactly. Constraints between
+ * pairs of tokens (dependencies and clauses) are not, so canCompress()
+ * returns false when they apply and the caller should fall back to the ILP.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class ViterbiCompressor extends Compressor {
+	static final int HAS_WORD = 1; // compression contains a non-punctuation token
+	static final int HAS_VERB = 2; // compression contains a verb
+	static final int FLAGS = 4;
+
+	boolean[] forbidden; // token i cannot be in the compression
+	int[] nextRequired; // first token after i that must be in the compression
+	int[] weight; // contribution of token i to the length
+	int[] flag; // flags set by including token i
+	double[] sig; // weighted significance score of token i
+	int lo, hi, cap; // length bounds, and the largest length tracked
+	int required; // flags that must be set at the end
+	BitSet unseen = new BitSet(); // trigrams <i,j,k> (bit (i * n + j) * n + k)
+	// not in Google n-grams, with the n-gram constraint
+
+	public ViterbiCompressor(MyBerkeleyLm lm, double lambda, double minCR) {
+		super(lm, lambda, minCR);
+	}
+
+	/**
+	 * the dynamic program is exact unless there are grammatical constraints
+	 * between tokens
+	 */
+	public boolean canCompress(Sentence s) {
+		return !hasGrammarConstraints(s);
+	}
+
+	public String compress(Sentence s) throws Exception {
+		setSentence(s);
+		long start = System.nanoTime();
+		b = computeTargetLength();
+		initializeTokens();
+		if (ngramConstraint)
+			lookUpTrigrams();
+		String output = decode();
+		stats.solveTime += System.nanoTime() - start;
+		stats.status = "Optimal";
+		return output;
+	}
+
+	/**
+	 * determine which tokens may or must be kept, and how much each token
+	 * contributes to the length and to the objective
+	 */
+	void initializeTokens() {
+		forbidden = new boolean[n];
+		boolean[] mandatory = new boolean[n];
+		weight = new int[n];
+		flag = new int[n];
+		sig = new double[n];
+		required = HAS_WORD;
+		boolean chars = strictCharLength || twitter;
+		for (int i = 1; i < n; i++) {
+			weight[i] = chars ? sentence.getCharLength(i) : 1;
+			if (i < n - 1 && sentence.isWord(i))
+				flag[i] |= HAS_WORD;
+			if (sentence.isVerb(i)) {
+				flag[i] |= HAS_VERB;
+				required |= HAS_VERB;
+			}
+			if (sentence.inParens(i))
+				forbidden[i] = true;
+			else if (sentence.isPRP(i))
+				mandatory[i] = true;
+			double d = getSigScore(i);
+			if (d != 0.0)
+				sig[i] = d * lambda;
+		}
+		nextRequired = new int[n];
+		int next = n;
+		for (int i = n - 1; i >= 0; i--) {
+			nextRequired[i] = next;
+			if (mandatory[i])
+				next = i;
+		}
+
+		// the same length constraints as CompressionModel.addConstraints
+		hi = Integer.MAX_VALUE;
+		if (strictCharLength) {
+			lo = b - 5;
+			hi = b + 5;
+		}
+		else if (twitter) {
+			hi = t;
+			lo = (int) (sentence.charLength() * 0.4);
+			if (lo >= t) {
+				lo = (int) (t * 0.1);
+			}
+		}
+		else if (strictLength) {
+			lo = b - 1;
+			hi = b + 1;
+		}
+		else {
+			lo = b;
+		}
+		// lengths above lo are equivalent if there is no upper bound
+		cap = Math.max(0, hi == Integer.MAX_VALUE ? lo : hi);
+	}
+
+	/**
+	 * find the trigrams of the sentence that are not in Google n-grams, in
+	 * one batch
+	 *
+	 * @throws IOException
+	 */
+	void lookUpTrigrams() throws IOException {
+		List<int[]> trigrams = new ArrayList<int[]>();
+		for (int i = 1; i < n; i++)
+			for (int j = i + 1; j < n; j++)
+				for (int k = j + 1; k < n; k++)
+					if (!forbidden[i] && !forbidden[j] && !forbidden[k]
+							&& keepTrigram(i, j, k))
+						trigrams.add(new int[] { i, j, k });
+		boolean[] found = unseenTrigrams(trigrams);
+		unseen.clear();
+		for (int t = 0; t < found.length; t++) {
+			if (!found[t]) continue;
+			int[] tri = trigrams.get(t);
+			unseen.set((tri[0] * n + tri[1]) * n + tri[2]);
+		}
+	}
+
+	/**
+	 * returns true if the trigram <i,j,k> may be in the compression
+	 */
+	boolean allowed(int i, int j, int k) {
+		if (!keepTrigram(i, j, k))
+			return false;
+		if (ngramConstraint && i > 0)
+			return !unseen.get((i * n + j) * n + k);
+		return true;
+	}
+
+	int index(int j, int k, int c, int f) {
+		return ((j * n + k) * (cap + 1) + c) * FLAGS + f;
+	}
+
+	int extend(int c, int k) {
+		if (hi == Integer.MAX_VALUE)
+			return Math.min(cap, c + weight[k]);
+		c += weight[k];
+		return c > hi ? -1 : c;
+	}
+
+	/**
+	 * run the dynamic program and return the best compression
+	 *
+	 * @return
+	 */
+	String decode() {
+		// best score of a compression whose last two tokens are j and k (j = 0
+		// if k is the first token), with length c and flags f
+		double[] score = new double[n * n * (cap + 1) * FLAGS];
+		int[] back = new int[score.length];
+		Arrays.fill(score, Double.NEGATIVE_INFINITY);
+
+		// the first token follows <s>, and every token before it is deleted
+		for (int k = 1; k < n && k <= nextRequired[0]; k++) {
+			if (forbidden[k]) continue;
+			int c = extend(0, k);
+			if (c < 0) continue;
+			int s = index(0, k, c, flag[k]);
+			score[s] = scores.start(k) + sig[k];
+			back[s] = -1;
+		}
+
+		double best = Double.NEGATIVE_INFINITY;
+		int bestState = -1;
+		for (int k = 1; k < n; k++) {
+			for (int j = 0; j < k; j++) {
+				// the compression can end with <j,k> if no required tokens follow
+				if (nextRequired[k] == n) {
+					double end = scores.end(j, k);
+					for (int c = Math.max(0, lo); c <= cap; c++) {
+						for (int f = 0; f < FLAGS; f++) {
+							int s = index(j, k, c, f);
+							if ((f & required) != required
+									|| score[s] == Double.NEGATIVE_INFINITY)
+								continue;
+							if (score[s] + end > best) {
+								best = score[s] + end;
+								bestState = s;
+							}
+						}
+					}
+				}
+				for (int l = k + 1; l < n && l <= nextRequired[k]; l++) {
+					if (forbidden[l] || !allowed(j, k, l)) continue;
+					// <s> is not scored as the first token of a trigram
+					double trigram = j == 0 ? 0 : scores.trigram(j, k, l);
+					for (int c = 0; c <= cap; c++) {
+						int c2 = extend(c, l);
+						if (c2 < 0) continue;
+						for (int f = 0; f < FLAGS; f++) {
+							int s = index(j, k, c, f);
+							if (score[s] == Double.NEGATIVE_INFINITY) continue;
+							int s2 = index(k, l, c2, f | flag[l]);
+							double d = score[s] + trigram + sig[l];
+							if (d > score[s2]) {
+								score[s2] = d;
+								back[s2] = s;
+							}
+						}
+					}
+				}
+			}
+		}
+
+		if (bestState < 0) {
+			System.err.println("ERROR: no solution exists");
+			compression = "";
+			return "";
+		}
+		// follow the back pointers to recover the kept tokens
+		LinkedList<Integer> kept = new LinkedList<Integer>();
+		for (int s = bestState; s >= 0; s = back[s])
+			kept.addFirst(s / FLAGS / (cap + 1) % n);
+		return formatCompression(kept);
+	}
+}
@@ -0,0 +1,180 @@
+package research.lib;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * A Bloom filter of n-grams stored in a memory-mapped file, a smaller
+ * alternative to NgramIndex for the n-gram constraint. An n-gram that is in
+ * the list is always found; one that is not is found with the false-positive
+ * rate chosen when the filter is built, from a list of n-grams one per line
+ * (anything after a tab, such as a count, is ignored):
+ *
+ * java research.lib.BloomFilter ngrams.txt[.gz] ngrams.bloom [rate]
+ *
+ * The filter takes about 1.44 * log2(1 / rate) bits per n-gram, e.g. 1.8
+ * bytes at the default rate of 0.001. N-grams are matched ignoring case.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class BloomFilter implements NgramLookup {
+	static final int MAGIC = 0x5343424c; // "SCBL"
+	static final int VERSION = 1;
+	static final int HEADER = 32; // bytes
+	public static final double DEFAULT_RATE = 0.001;
+
+	long size; // number of n-grams
+	long bits; // size of the filter (a multiple of 64)
+	int hashes; // bits set per n-gram
+	MappedByteBuffer[] chunks;
+
+	/**
+	 * map a filter written by build()
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public BloomFilter(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		chunks = MappedLm.map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+		raf.close(); // the mappings stay valid
+
+		if (getInt(0) != MAGIC || getInt(4) != VERSION)
+			throw new IOException(file + " is not a Bloom filter of n-grams");
+		hashes = getInt(8);
+		size = getLong(16);
+		bits = getLong(24);
+	}
+
+	private BloomFilter() {}
+
+	public long size() { return size; }
+
+	/**
+	 * the expected false-positive rate, given the number of n-grams added
+	 */
+	public double falsePositiveRate() {
+		return Math.pow(1 - Math.exp(-1.0 * hashes * size / bits), hashes);
+	}
+
+	/**
+	 * is the n-gram (words separated by single spaces) in the filter; may be
+	 * true for n-grams that are not
+	 */
+	public boolean contains(String ngram) {
+		long key = NgramIndex.fingerprint(ngram);
+		long h = key >>> 32, step = (key & 0xffffffffL) | 1;
+		for (int i = 0; i < hashes; i++, h += step) {
+			long bit = (h & Long.MAX_VALUE) % bits;
+			if ((getLong(HEADER + 8 * (bit >>> 6)) & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	public int[] hasNgrams(List<String> ngrams) {
+		int[] found = new int[ngrams.size()];
+		for (int i = 0; i < found.length; i++)
+			found[i] = contains(ngrams.get(i)) ? 1 : 0;
+		return found;
+	}
+
+	public void close() {
+		chunks = null;
+	}
+
+	void add(String ngram) {
+		long key = NgramIndex.fingerprint(ngram);
+		long h = key >>> 32, step = (key & 0xffffffffL) | 1;
+		for (int i = 0; i < hashes; i++, h += step) {
+			long bit = (h & Long.MAX_VALUE) % bits;
+			long pos = HEADER + 8 * (bit >>> 6);
+			putLong(pos, getLong(pos) | (1L << bit));
+		}
+		size++;
+	}
+
+	int getInt(long pos) {
+		return chunks[(int) (pos >>> MappedLm.CHUNK_BITS)].getInt((int) (pos & ((1L << MappedLm.CHUNK_BITS) - 1)));
+	}
+
+	long getLong(long pos) {
+		return chunks[(int) (pos >>> MappedLm.CHUNK_BITS)].getLong((int) (pos & ((1L << MappedLm.CHUNK_BITS) - 1)));
+	}
+
+	void putLong(long pos, long v) {
+		chunks[(int) (pos >>> MappedLm.CHUNK_BITS)].putLong((int) (pos & ((1L << MappedLm.CHUNK_BITS) - 1)), v);
+	}
+
+	/**
+	 * build a filter from a list of n-grams (optionally gzipped), one per
+	 * line, with the given false-positive rate. The list is read twice: once
+	 * to size the filter, then to fill it.
+	 *
+	 * @param ngramFile
+	 * @param file
+	 * @param rate
+	 * @throws IOException
+	 */
+	public static void build(String ngramFile, String file, double rate) throws IOException {
+		if (rate <= 0 || rate >= 1)
+			throw new IllegalArgumentException("Invalid false-positive rate: " + rate);
+		long lines = 0;
+		BufferedReader input = NgramIndex.open(ngramFile);
+		while (input.readLine() != null)
+			lines++;
+		input.close();
+
+		// the optimal size and number of hashes for this many n-grams
+		BloomFilter filter = new BloomFilter();
+		double ln2 = Math.log(2);
+		long m = (long) Math.ceil(-Math.max(1, lines) * Math.log(rate) / (ln2 * ln2));
+		filter.bits = (m + 63) / 64 * 64;
+		filter.hashes = Math.max(1, (int) Math.round(ln2 * filter.bits / Math.max(1, lines)));
+		long bytes = HEADER + filter.bits / 8;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		raf.setLength(bytes);
+		filter.chunks = MappedLm.map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, bytes);
+
+		input = NgramIndex.open(ngramFile);
+		String line;
+		while ((line = input.readLine()) != null) {
+			int tab = line.indexOf('\t');
+			String ngram = (tab < 0 ? line : line.substring(0, tab)).trim();
+			if (ngram.length() > 0)
+				filter.add(ngram);
+		}
+		input.close();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC).putInt(VERSION).putInt(filter.hashes).putInt(0)
+				.putLong(filter.size).putLong(filter.bits);
+		for (int i = 0; i < HEADER; i++)
+			filter.chunks[0].put(i, header.get(i));
+		for (MappedByteBuffer chunk : filter.chunks)
+			chunk.force();
+		raf.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2 && args.length != 3) {
+			System.err.println("Usage: java research.lib.BloomFilter ngrams.txt[.gz] output.bloom [false-positive rate]");
+			System.exit(2);
+		}
+		long start = System.currentTimeMillis();
+		build(args[0], args[1], args.length == 3 ? Double.parseDouble(args[2]) : DEFAULT_RATE);
+		BloomFilter filter = new BloomFilter(args[1]);
+		System.err.println("Added " + filter.size() + " n-grams from " + args[0]
+				+ " in " + (System.currentTimeMillis() - start) / 1000.0
+				+ " s (" + filter.hashes + " hashes, " + filter.bits / 8
+				+ " bytes, false-positive rate " + filter.falsePositiveRate() + ")");
+	}
+}
@@ -4,6 +4,7 @@ import java.io.*;
 import java.util.*;
 import javax.xml.parsers.*;
 import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
@@ -44,6 +45,25 @@ public class Document extends DefaultHandler {
 		//System.err.println("Loaded "+sentences.size()+" sents");
 	}
 
+	/**
+	 * parse the document from XML, e.g. received by the compression server
+	 *
+	 * @throws IOException
+	 *             if the XML is invalid or incomplete
+	 */
+	public Document(Reader xml) throws IOException {
+		sentences = new ArrayList<Sentence>();
+		try {
+			SAXParserFactory spf = SAXParserFactory.newInstance();
+			SAXParser sp = spf.newSAXParser();
+			sp.parse(new InputSource(xml), this);
+		} catch (SAXException e) {
+			throw new IOException("invalid XML document: " + e.getMessage());
+		} catch (ParserConfigurationException e) {
+			throw new IOException("cannot create the XML parser: " + e.getMessage());
+		}
+	}
+
 	public void add(Sentence s) { sentences.add(s); }
 
 	// methods for parsing XML
@@ -124,7 +144,6 @@ public class Document extends DefaultHandler {
 					topicWordFreq.put(s.getToken(i), count + 1);
 				}
 			}
-			s.loadDependencies();
 			s.findClauses();
 			s.calculateDepth();
 		}
@@ -1,17 +1,31 @@
 package research.lib;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import edu.stanford.nlp.ling.Word;
 import edu.stanford.nlp.parser.lexparser.LexicalizedParser;
+import edu.stanford.nlp.parser.lexparser.Lexicon;
+import edu.stanford.nlp.parser.lexparser.ParserData;
 import edu.stanford.nlp.process.DocumentPreprocessor;
 import edu.stanford.nlp.process.PTBTokenizer.PTBTokenizerFactory;
 import edu.stanford.nlp.trees.GrammaticalStructure;
@@ -20,6 +34,7 @@ import edu.stanford.nlp.trees.PennTreebankLanguagePack;
 import edu.stanford.nlp.trees.TreebankLanguagePack;
 import edu.stanford.nlp.trees.TypedDependency;
 import edu.stanford.nlp.util.Filters;
+import edu.stanford.nlp.util.Numberer;
 
 /**
  * Load several documents from file (raw text or XML) and create Document and
@@ -32,22 +47,132 @@ import edu.stanford.nlp.util.Filters;
 public class DocumentImporter {
 
 	List<Document> documents;
-	LexicalizedParser lexParser = null;
+	ParserData grammar = null;
 	TreebankLanguagePack tlp;
-	GrammaticalStructureFactory gsf;
+	ParseCache parseCache = null; // parses of sentences seen before
+	int parseThreads = 1; // number of sentences parsed in parallel
+	BlockingQueue<Parser> parsers = new LinkedBlockingQueue<Parser>(); // idle
+	ExecutorService pool; // runs the parsers, if there are several
 	// need to specify the path to the grammar file
 
+	/**
+	 * a parser and the factory for its dependency parses. Each is used by one
+	 * thread at a time.
+	 */
+	class Parser {
+		LexicalizedParser lexParser;
+		GrammaticalStructureFactory gsf;
+
+		Parser(ParserData data) {
+			lexParser = new LexicalizedParser(data);
+			gsf = tlp.grammaticalStructureFactory(Filters.<String>acceptFilter());
+		}
+
+		void parse(Sentence s) {
+			long start = System.nanoTime();
+			List<Word> tokenized = new DocumentPreprocessor(PTBTokenizerFactory.newWordTokenizerFactory("")).getWordsFromString(s.getText());
+			lexParser.parse(tokenized);
+			GrammaticalStructure gs = gsf.newGrammaticalStructure(lexParser.getBestParse());
+			Collection<TypedDependency> tdl = gs.typedDependencies();
+			s.setDepParse(tdl.toString());
+			s.setParse(lexParser.getBestParse().toString().replaceAll("\\[\\S+?\\]\\s", ""));
+			s.setText(join(tokenized));
+			s.parseTime = System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * a Numberer that may be used by several threads. The parser numbers the
+	 * unknown words of each sentence in the global word Numberer.
+	 */
+	static class SynchronizedNumberer extends Numberer {
+		private static final long serialVersionUID = 1L;
+
+		SynchronizedNumberer(Numberer n) {
+			super(n);
+		}
+
+		public synchronized int number(Object o) { return super.number(o); }
+
+		public synchronized Object object(int n) { return super.object(n); }
+
+		public synchronized boolean hasSeen(Object o) { return super.hasSeen(o); }
+
+		public synchronized int total() { return super.total(); }
+	}
+
 	public DocumentImporter() {
 		documents = new ArrayList<Document>();
 	}
 
-	public void loadParser() {
-		if (lexParser != null) return; // already loaded grammar
+	public void setParseCache(ParseCache cache) {
+		parseCache = cache;
+	}
+
+	/**
+	 * parse this many sentences in parallel (default 1)
+	 * 
+	 * @param threads
+	 */
+	public void setParseThreads(int threads) {
+		parseThreads = threads;
+	}
+
+	/**
+	 * load the grammar and create the parsers. With several threads, each
+	 * parser shares the grammar but has its own copy of the lexicon, which
+	 * caches the signature of the last unknown word. The unary grammar builds
+	 * its closure tables the first time they are used, so they are built here
+	 * before the parsers are used by several threads. Each copied lexicon
+	 * builds its word index here too, so that it looks up the global word
+	 * Numberer (in an unsynchronized map) before the threads start.
+	 */
+	public synchronized void loadParser() {
+		if (grammar != null) return; // already loaded grammar
 		URL grammarFile = getClass().getClassLoader().getResource(
 				"research/lib/englishPCFG.ser.gz");
-		lexParser = new LexicalizedParser(grammarFile.getFile());
+		grammar = LexicalizedParser.getParserDataFromSerializedFile(grammarFile.getFile());
 		tlp = new PennTreebankLanguagePack();
-		gsf = tlp.grammaticalStructureFactory(Filters.<String>acceptFilter());
+		if (parseThreads > 1) {
+			for (Map.Entry<String,Numberer> e : grammar.numbs.entrySet())
+				e.setValue(new SynchronizedNumberer(e.getValue()));
+		}
+		parsers.add(new Parser(grammar));
+		if (parseThreads > 1) {
+			grammar.ug.closedRulesByParent(0);
+			grammar.lex.isKnown(0);
+		}
+		for (int i = 1; i < parseThreads; i++) {
+			Lexicon lex = copy(grammar.lex);
+			lex.isKnown(0);
+			parsers.add(new Parser(new ParserData(lex, grammar.bg, grammar.ug,
+					grammar.dg, grammar.numbs, grammar.pt)));
+		}
+	}
+
+	/**
+	 * a deep copy of a lexicon
+	 */
+	static Lexicon copy(Lexicon lex) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(lex);
+			out.close();
+			return (Lexicon) new ObjectInputStream(new ByteArrayInputStream(
+					bytes.toByteArray())).readObject();
+		} catch (Exception e) {
+			throw new RuntimeException("Error copying the lexicon", e);
+		}
+	}
+
+	/**
+	 * stop the parsing threads
+	 */
+	public void close() {
+		if (pool != null)
+			pool.shutdownNow();
+		pool = null;
 	}
 
 	/**
@@ -62,11 +187,12 @@ public class DocumentImporter {
 	 */
 	public List<Document> loadDocuments(String filename, boolean rawText) throws IOException {
 		File data = new File(filename);
+		List<Sentence> unparsed = new ArrayList<Sentence>();
 		if (data.isFile()) {
 			Document temp;
 			if (rawText) {
 				temp = loadRawText(filename);
-				generateParses(temp);
+				unparsed.addAll(temp.getSentences());
 			}
 			else temp = new Document(filename);
 			temp.setTitle(filename.substring(filename.lastIndexOf('/')+1,filename.length()));
@@ -78,13 +204,16 @@ public class DocumentImporter {
 				Document temp;
 				if (rawText) {
 					temp = loadRawText(filename+"/"+s);
-					generateParses(temp);
+					unparsed.addAll(temp.getSentences());
 				}
 				else temp = new Document(filename+"/"+s);
 				temp.setTitle(s);
 				documents.add(temp);
 			}
 		}
+		// parse the sentences of all documents together, so that several
+		// small documents are parsed in parallel
+		generateParses(unparsed);
 		return documents;
 	}
 
@@ -97,43 +226,137 @@ public class DocumentImporter {
 	 */
 	public Document loadRawText(String filename) throws IOException {
 		Document doc = new Document();
-		BufferedReader input = new BufferedReader(new FileReader(filename));
-		String line;
+		BufferedReader input = openRawText(filename);
+		readRawText(input, doc, 0, Integer.MAX_VALUE);
+		input.close();
+		return doc;
+	}
+
+	/**
+	 * open a raw-text document for reading with readRawText
+	 * 
+	 * @param filename
+	 * @return
+	 * @throws IOException
+	 */
+	static BufferedReader openRawText(String filename) throws IOException {
+		return new BufferedReader(new FileReader(filename));
+	}
 
+	/**
+	 * read the next sentences of a raw-text document, one per line, and add
+	 * them to doc
+	 * 
+	 * @param input
+	 * @param doc
+	 * @param first
+	 *            the id of the first sentence read (its line in the file)
+	 * @param max
+	 *            maximum number of sentences to read
+	 * @return the number of sentences read, less than max only at the end of
+	 *         the input
+	 * @throws IOException
+	 */
+	static int readRawText(BufferedReader input, Document doc, int first,
+			int max) throws IOException {
+		String line;
 		int count = 0;
-		while ( (line=input.readLine()) != null ) {
+		while (count < max && (line = input.readLine()) != null) {
 			Sentence tempSent = new Sentence();
 			tempSent.text = line.trim();
-			tempSent.setId(""+(count++));
+			tempSent.setId("" + (first + count++));
 			doc.add(tempSent);
 			tempSent.document = doc;
 		}
-		input.close();
-		return doc;
+		return count;
 	}
 
 	/**
-	 * parse all sentences in a document using the Stanford Parser
+	 * parse all sentences in a document using the Stanford Parser, unless
+	 * their parses are in the parse cache
 	 * 
 	 * @param doc
 	 */
 	public void generateParses(Document doc) {
-		loadParser();
-		List<Word> tokenized;
-		GrammaticalStructure gs;
-		Collection<TypedDependency> tdl;
-
-		for (Sentence s : doc.getSentences()) {
-			if (s.depParse == null || s.parse == null) {
-				tokenized = new DocumentPreprocessor(PTBTokenizerFactory.newWordTokenizerFactory("")).getWordsFromString(s.getText());
-				lexParser.parse(tokenized);
-				gs = gsf.newGrammaticalStructure(lexParser.getBestParse());
-				tdl = gs.typedDependencies();
-				s.setDepParse(tdl.toString());
-				s.setParse(lexParser.getBestParse().toString().replaceAll("\\[\\S+?\\]\\s", ""));
-				s.setText(join(tokenized));
+		generateParses(doc.getSentences());
+	}
+
+	/**
+	 * parse the sentences (in parallel, if there are several parse threads)
+	 * unless their parses are in the parse cache, and initialize them in order
+	 * 
+	 * @param sentences
+	 */
+	public void generateParses(List<Sentence> sentences) {
+		List<Sentence> toParse = new ArrayList<Sentence>();
+		List<String> texts = new ArrayList<String>(); // raw text of each
+		for (Sentence s : sentences) {
+			if ((s.depParse == null || s.parse == null)
+					&& (parseCache == null || !parseCache.fill(s))) {
+				toParse.add(s);
+				texts.add(s.getText());
+			}
+		}
+		if (!toParse.isEmpty()) {
+			loadParser();
+			if (parseThreads > 1 && toParse.size() > 1)
+				parseInParallel(toParse);
+			else {
+				// take the parser, in case other threads are parsing too
+				Parser parser;
+				try {
+					parser = parsers.take();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				try {
+					for (Sentence s : toParse)
+						parser.parse(s);
+				} finally {
+					parsers.add(parser);
+				}
+			}
+			if (parseCache != null) {
+				for (int i = 0; i < toParse.size(); i++)
+					parseCache.add(texts.get(i), toParse.get(i));
 			}
+		}
+		for (Sentence s : sentences)
 			s.initialize();
+	}
+
+	/**
+	 * parse the sentences with a pool of threads, each taking an idle parser
+	 * for each sentence
+	 * 
+	 * @param sentences
+	 */
+	void parseInParallel(List<Sentence> sentences) {
+		synchronized (this) {
+			if (pool == null)
+				pool = Executors.newFixedThreadPool(parseThreads);
+		}
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (final Sentence s : sentences) {
+			results.add(pool.submit(new Callable<Object>() {
+				public Object call() throws InterruptedException {
+					Parser parser = parsers.take();
+					try {
+						parser.parse(s);
+					} finally {
+						parsers.add(parser);
+					}
+					return null;
+				}
+			}));
+		}
+		try {
+			for (Future<Object> result : results)
+				result.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Error parsing sentences", e.getCause());
 		}
 	}
 
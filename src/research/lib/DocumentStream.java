@@ -0,0 +1,117 @@
+package research.lib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Reads documents a block of sentences at a time, so that large inputs can be
+ * compressed without loading (and parsing) everything first. Each block is
+ * returned as a Document holding at most blockSize consecutive sentences of a
+ * single input file, so document-level statistics (topic word frequencies)
+ * are computed over that block. A file with at most blockSize sentences is
+ * returned as one Document, the same as DocumentImporter.loadDocuments.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class DocumentStream {
+	DocumentImporter importer = new DocumentImporter();
+	LinkedList<String> files = new LinkedList<String>(); // files not opened yet
+	boolean rawText;
+	int blockSize;
+
+	// the file being read
+	String title;
+	BufferedReader input; // for raw text
+	List<Sentence> parsed; // for xml, all sentences of the file
+	int count; // sentences read from the file so far
+
+	/**
+	 * @param filename
+	 *            filepath or directory
+	 * @param rawText
+	 *            F for xml, T otherwise
+	 * @param blockSize
+	 *            maximum number of sentences in a block
+	 */
+	public DocumentStream(String filename, boolean rawText, int blockSize) {
+		this.rawText = rawText;
+		this.blockSize = blockSize;
+		File data = new File(filename);
+		if (data.isFile()) {
+			files.add(filename);
+		}
+		else {
+			for (String s : data.list()) {
+				if (s.charAt(0)== '.') continue;
+				files.add(filename+"/"+s);
+			}
+		}
+	}
+
+	/**
+	 * return the next block of sentences, parsed and initialized, or null if
+	 * there are none left
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public Document next() throws IOException {
+		while (input == null && parsed == null) {
+			if (files.isEmpty()) return null;
+			open(files.removeFirst());
+		}
+		Document doc = new Document();
+		if (rawText) {
+			int read = DocumentImporter.readRawText(input, doc, count, blockSize);
+			count += read;
+			if (read < blockSize) {
+				input.close();
+				input = null;
+			}
+			importer.generateParses(doc);
+		}
+		else {
+			int end = Math.min(count + blockSize, parsed.size());
+			for (; count < end; count++) {
+				doc.add(parsed.get(count));
+				parsed.get(count).setParent(doc);
+			}
+			if (count == parsed.size())
+				parsed = null;
+		}
+		doc.setTitle(title);
+		if (doc.getSentences().isEmpty())
+			return next();
+		return doc;
+	}
+
+	public void setParseCache(ParseCache cache) {
+		importer.setParseCache(cache);
+	}
+
+	public void setParseThreads(int threads) {
+		importer.setParseThreads(threads);
+	}
+
+	void open(String filename) throws IOException {
+		title = filename.substring(filename.lastIndexOf('/')+1,filename.length());
+		count = 0;
+		if (rawText)
+			input = DocumentImporter.openRawText(filename);
+		else
+			parsed = new ArrayList<Sentence>(new Document(filename).getSentences());
+	}
+
+	public void close() throws IOException {
+		if (input != null) input.close();
+		input = null;
+		parsed = null;
+		files.clear();
+		importer.close();
+	}
+}
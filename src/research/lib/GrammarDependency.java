@@ -22,6 +22,10 @@ public class GrammarDependency implements Comparable<GrammarDependency> {
 	static final HashSet<String> poss = new HashSet<String>(Arrays.asList("poss possessive".split("\\s")));
 	static final HashSet<String> pp_sub= new HashSet<String>(Arrays.asList("advcl ccomp complm csubj csubjpass mark pcomp pobj prep prepc purpcl rcmod ref rel tmod xcomp".split("\\s")));
 
+	// kinds of relation, by the constraint CompressionModel adds for them
+	public static final byte OTHER = 0, MOD = 1, DET = 2, POSS = 3, NEG = 4,
+			SUBJ_OBJ = 5, PP_SUB = 6, CC = 7, CONJ = 8;
+
 	static final Pattern depPattern = Pattern.compile("([a-z]+)\\(\\S+-([0-9]+),\\s\\S+-([0-9]+)\\)"); // group1 = rel, group2= index a, group3=indexb
 	Matcher m;
 
@@ -53,6 +57,29 @@ public class GrammarDependency implements Comparable<GrammarDependency> {
 		b = Integer.parseInt(m.group(3));
 	}
 
+	/**
+	 * the kind of a relation type: the first of MOD, DET, POSS, NEG,
+	 * SUBJ_OBJ, PP_SUB, CC and CONJ that it is, or OTHER
+	 * 
+	 * @param type
+	 * @return
+	 */
+	public static byte kind(String type) {
+		if (mods.contains(type)) return MOD;
+		if (type.equals("det")) return DET;
+		if (poss.contains(type)) return POSS;
+		if (type.equals("neg")) return NEG;
+		if (subj_obj.contains(type)) return SUBJ_OBJ;
+		if (pp_sub.contains(type)) return PP_SUB;
+		if (type.equals("cc")) return CC;
+		if (type.equals("conj")) return CONJ;
+		return OTHER;
+	}
+
+	public byte kind() { return kind(type); }
+
+	public String getType() { return type; }
+
 	/**
 	 * return true if this relation requires the head and dependent to stay together
 	 */
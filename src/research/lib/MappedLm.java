@@ -0,0 +1,350 @@
+package research.lib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A trigram (or lower order) backoff language model stored in a file that is
+ * memory-mapped instead of read onto the heap, so loading is nearly instant,
+ * several processes on one machine share the pages, and only the vocabulary
+ * is kept on the heap. Convert an ARPA file once with
+ *
+ * java research.lib.MappedLm lm.arpa lm.mmap
+ *
+ * Scores are the same as those of the Berkeley LM read from the ARPA file.
+ *
+ * The file has a header, then for each order a hash table (open addressing
+ * with linear probing) of n-gram keys, probabilities and backoffs, and then
+ * the vocabulary. A key packs the ids of the words of an n-gram, 21 bits each.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class MappedLm {
+	static final int MAGIC = 0x53434c4d; // "SCLM"
+	static final int VERSION = 1;
+	static final int MAX_ORDER = 3;
+	static final int BITS = 21; // bits per word id in a key
+	static final int HEADER = 16 + 24 * MAX_ORDER; // bytes
+	static final int CHUNK_BITS = 30; // each mapped chunk is 1GB
+	static final float OOV_LOG_PROB = -100; // as in the Berkeley LM
+	public static final String START_SYMBOL = "<s>";
+	public static final String END_SYMBOL = "</s>";
+	public static final String UNK_SYMBOL = "<unk>";
+
+	int order;
+	int unkId;
+	HashMap<String,Integer> vocab = new HashMap<String,Integer>();
+	long[] tableStart = new long[MAX_ORDER + 1]; // offset of each table
+	long[] capacity = new long[MAX_ORDER + 1]; // slots in each table (power of 2)
+	MappedByteBuffer[] chunks;
+
+	/**
+	 * map an lm written by convert()
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public MappedLm(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		chunks = map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+		raf.close(); // the mappings stay valid
+
+		if (getInt(0) != MAGIC || getInt(4) != VERSION)
+			throw new IOException(file + " is not a memory-mapped lm");
+		order = getInt(8);
+		int numWords = getInt(12);
+		long offset = HEADER;
+		for (int n = 1; n <= order; n++) {
+			capacity[n] = getLong(16 + 24 * (n - 1) + 8);
+			tableStart[n] = offset;
+			offset += capacity[n] * 16;
+		}
+
+		// read the vocabulary from the end of the file
+		FileInputStream fis = new FileInputStream(file);
+		fis.getChannel().position(offset);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+		for (int i = 0; i < numWords; i++)
+			vocab.put(in.readUTF(), i);
+		in.close();
+		unkId = vocab.get(UNK_SYMBOL);
+	}
+
+	public int getOrder() { return order; }
+
+	public int numWords() { return vocab.size(); }
+
+	/**
+	 * the id of a word, or the id of <unk> if it is not in the vocabulary
+	 */
+	public int getId(String word) {
+		Integer id = vocab.get(word);
+		return id == null ? unkId : id;
+	}
+
+	/**
+	 * the log probability (base 10) of the last word of ngram[start..end-1]
+	 * given the others, backing off as necessary
+	 */
+	public float getLogProb(int[] ngram, int start, int end) {
+		if (end - start > order)
+			start = end - order;
+		int len = end - start;
+
+		// the longest suffix of the n-gram with a probability
+		float prob = Float.NaN;
+		int matched = 0;
+		for (int l = 1; l <= len; l++) {
+			long slot = find(ngram, end - l, end);
+			if (slot < 0) continue;
+			prob = getFloat(probOffset(l, slot));
+			matched = l;
+		}
+		if (matched == 0)
+			return OOV_LOG_PROB;
+		if (matched == len)
+			return prob;
+
+		// add the backoff weights of the contexts longer than the match
+		float backoff = 0;
+		for (int l = 1; l < len; l++) {
+			long slot = find(ngram, end - 1 - l, end - 1);
+			if (slot < 0) break;
+			if (l >= matched)
+				backoff += getFloat(probOffset(l, slot) + 4 * capacity[l]);
+		}
+		return prob + backoff;
+	}
+
+	/**
+	 * the slot of an n-gram in the table of its order, or -1 if it is not in
+	 * the lm
+	 */
+	long find(int[] ngram, int start, int end) {
+		int n = end - start;
+		long key = key(ngram, start, end);
+		long mask = capacity[n] - 1;
+		for (long slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			long k = getLong(tableStart[n] + 8 * slot);
+			if (k == key) return slot;
+			if (k == 0) return -1;
+		}
+	}
+
+	long probOffset(int n, long slot) {
+		return tableStart[n] + 8 * capacity[n] + 4 * slot;
+	}
+
+	/**
+	 * pack the ids of an n-gram (plus one, so no key is 0)
+	 */
+	static long key(int[] ngram, int start, int end) {
+		long key = 0;
+		for (int i = start; i < end; i++)
+			key = (key << BITS) | (ngram[i] + 1);
+		return key;
+	}
+
+	static long hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return key;
+	}
+
+	int getInt(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getInt((int) (pos & ((1L << CHUNK_BITS) - 1)));
+	}
+
+	long getLong(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getLong((int) (pos & ((1L << CHUNK_BITS) - 1)));
+	}
+
+	float getFloat(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].getFloat((int) (pos & ((1L << CHUNK_BITS) - 1)));
+	}
+
+	/**
+	 * map a file in chunks, since a single buffer is limited to 2GB. Values
+	 * are aligned to their size, so none crosses a chunk boundary.
+	 */
+	static MappedByteBuffer[] map(FileChannel channel, FileChannel.MapMode mode,
+			long size) throws IOException {
+		int n = (int) ((size + (1L << CHUNK_BITS) - 1) >>> CHUNK_BITS);
+		MappedByteBuffer[] chunks = new MappedByteBuffer[n];
+		for (int i = 0; i < n; i++) {
+			long start = (long) i << CHUNK_BITS;
+			chunks[i] = channel.map(mode, start, Math.min(1L << CHUNK_BITS, size - start));
+		}
+		return chunks;
+	}
+
+	/**
+	 * convert an ARPA file (optionally gzipped) to the memory-mapped format.
+	 * Word ids are assigned in order of appearance, as in the Berkeley LM.
+	 *
+	 * @param arpaFile
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void convert(String arpaFile, String file) throws IOException {
+		InputStream is = new FileInputStream(arpaFile);
+		if (arpaFile.endsWith(".gz"))
+			is = new GZIPInputStream(is);
+		BufferedReader input = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+
+		// the header gives the number of n-grams of each order
+		List<Long> counts = new ArrayList<Long>();
+		String line;
+		int lineNumber = 0, arpaOrder = 0;
+		while ((line = input.readLine()) != null && !line.contains("\\1-grams:")) {
+			lineNumber++;
+			if (!line.startsWith("ngram ")) continue;
+			arpaOrder++;
+			if (counts.size() < MAX_ORDER)
+				counts.add(Long.parseLong(line.substring(line.indexOf('=') + 1).trim()));
+		}
+		if (line == null)
+			throw new IOException("\\1-grams: expected in " + arpaFile);
+		lineNumber++;
+		int order = counts.size();
+		if (arpaOrder > MAX_ORDER)
+			System.err.println("Warning: " + arpaFile + " is a " + arpaOrder
+					+ "-gram lm; only its n-grams up to order " + MAX_ORDER
+					+ " are converted, which give the same scores to the trigrams"
+					+ " the compressor looks up but not to longer n-grams");
+		long[] capacity = new long[MAX_ORDER + 1];
+		long[] tableStart = new long[MAX_ORDER + 1];
+		long size = HEADER;
+		for (int n = 1; n <= order; n++) {
+			capacity[n] = Long.highestOneBit(Math.max(2, counts.get(n - 1) * 3 / 2)) * 2;
+			tableStart[n] = size;
+			size += capacity[n] * 16;
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		raf.setLength(size);
+		FileChannel channel = raf.getChannel();
+		MappedLm lm = new MappedLm();
+		lm.order = order;
+		lm.capacity = capacity;
+		lm.tableStart = tableStart;
+		lm.chunks = map(channel, FileChannel.MapMode.READ_WRITE, size);
+
+		// read the n-grams, "logprob<tab>w1 w2 w3[<tab>backoff]"
+		int n = 1;
+		int[] ngram = new int[MAX_ORDER];
+		while ((line = input.readLine()) != null) {
+			lineNumber++;
+			if (line.length() == 0) continue;
+			if (line.charAt(0) == '\\') {
+				if (line.startsWith("\\end") || ++n > order) break;
+				continue;
+			}
+			int firstTab = line.indexOf('\t');
+			int secondTab = line.indexOf('\t', firstTab + 1);
+			String[] words = firstTab < 0 ? null : line.substring(firstTab + 1,
+					secondTab < 0 ? line.length() : secondTab).split(" ");
+			if (words == null || words.length != n)
+				throw new IOException("line " + lineNumber + " of " + arpaFile
+						+ " is not a " + n + "-gram line \"logprob<tab>ngram[<tab>backoff]\""
+						+ " (see fix_spacing.pl for space-separated lms): " + line);
+			for (int i = 0; i < n; i++)
+				ngram[i] = lm.addWord(words[i]);
+			float backoff = secondTab < 0 ? 0 : Float.parseFloat(line.substring(secondTab + 1));
+			lm.put(ngram, n, Float.parseFloat(line.substring(0, firstTab)), backoff);
+		}
+		input.close();
+		lm.addWord(START_SYMBOL);
+		lm.addWord(END_SYMBOL);
+		lm.addWord(UNK_SYMBOL);
+		if (lm.vocab.size() >= (1 << BITS) - 1)
+			throw new IOException("vocabulary too large (" + lm.vocab.size() + " words)");
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC).putInt(VERSION).putInt(order).putInt(lm.vocab.size());
+		for (int i = 1; i <= MAX_ORDER; i++)
+			header.putLong(i <= order ? counts.get(i - 1) : 0).putLong(capacity[i]).putLong(tableStart[i]);
+		for (int i = 0; i < HEADER; i++)
+			lm.chunks[0].put(i, header.get(i));
+		for (MappedByteBuffer chunk : lm.chunks)
+			chunk.force();
+
+		// append the vocabulary, in id order
+		String[] words = new String[lm.vocab.size()];
+		for (String w : lm.vocab.keySet())
+			words[lm.vocab.get(w)] = w;
+		channel.position(size);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				Channels.newOutputStream(channel)));
+		for (String w : words)
+			out.writeUTF(w);
+		out.close();
+		raf.close();
+	}
+
+	private MappedLm() {}
+
+	int addWord(String word) {
+		Integer id = vocab.get(word);
+		if (id == null) {
+			id = vocab.size();
+			vocab.put(word, id);
+		}
+		return id;
+	}
+
+	void put(int[] ngram, int n, float prob, float backoff) {
+		long key = key(ngram, 0, n);
+		long mask = capacity[n] - 1;
+		long slot = hash(key) & mask;
+		while (true) {
+			long k = getLong(tableStart[n] + 8 * slot);
+			if (k == 0 || k == key) break;
+			slot = (slot + 1) & mask;
+		}
+		putLong(tableStart[n] + 8 * slot, key);
+		putFloat(probOffset(n, slot), prob);
+		putFloat(probOffset(n, slot) + 4 * capacity[n], backoff);
+	}
+
+	void putLong(long pos, long v) {
+		chunks[(int) (pos >>> CHUNK_BITS)].putLong((int) (pos & ((1L << CHUNK_BITS) - 1)), v);
+	}
+
+	void putFloat(long pos, float v) {
+		chunks[(int) (pos >>> CHUNK_BITS)].putFloat((int) (pos & ((1L << CHUNK_BITS) - 1)), v);
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java research.lib.MappedLm input.arpa[.gz] output.mmap");
+			System.exit(2);
+		}
+		long start = System.currentTimeMillis();
+		convert(args[0], args[1]);
+		System.err.println("Converted " + args[0] + " to " + args[1] + " in "
+				+ (System.currentTimeMillis() - start) / 1000.0 + " s");
+	}
+}
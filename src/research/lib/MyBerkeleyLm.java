@@ -1,5 +1,7 @@
 package research.lib;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
@@ -8,17 +10,29 @@ import edu.berkeley.nlp.lm.ArrayEncodedNgramLanguageModel;
 import edu.berkeley.nlp.lm.NgramLanguageModel;
 import edu.berkeley.nlp.lm.StringWordIndexer;
 import edu.berkeley.nlp.lm.cache.ArrayEncodedCachingLmWrapper;
+import edu.berkeley.nlp.lm.cache.ArrayEncodedDirectMappedLmCache;
 import edu.berkeley.nlp.lm.io.LmReaders;
 
 /**
  * a wrapper for the Berkeley LM that converts n-gram queries to the appropriate
- * format for querying the lm
+ * format for querying the lm. The lm itself is read-only and shared, and each
+ * thread queries it through its own cache, so one instance may be used by
+ * several threads. An lm converted to the memory-mapped format of MappedLm
+ * (extension .mmap) is queried directly instead.
  * 
  * @author Courtney Napoles
  * 
  */
 public class MyBerkeleyLm {
-	NgramLanguageModel<String> lm;
+	ArrayEncodedNgramLanguageModel<String> lm; // shared by all threads
+	MappedLm mapped = null; // used instead of lm for .mmap files
+	int cacheBits = 24; // size of each thread's cache (2^cacheBits n-grams)
+	private final ThreadLocal<ArrayEncodedNgramLanguageModel<String>> cachedLm = new ThreadLocal<ArrayEncodedNgramLanguageModel<String>>() {
+		protected ArrayEncodedNgramLanguageModel<String> initialValue() {
+			return ArrayEncodedCachingLmWrapper.wrapWithCacheNotThreadSafe(lm,
+					new ArrayEncodedDirectMappedLmCache(cacheBits, lm.getLmOrder()));
+		}
+	};
 	private double topicFreqCorpus = 384013.14; // freq per 1m; estimated from
 										// http://corpus.leeds.ac.uk/internet_pos_en
 
@@ -32,17 +46,25 @@ public class MyBerkeleyLm {
 
 		// normalize topic word frequency based on this corpus size
 		setTopicFreqCorpus(getTopicFreqCorpus() / 1000000
-				* lm.getWordIndexer().numWords());
+				* numWords());
 	}
 
 	/**
 	 * decides if the lm is stored in a binary file (based on extensions .b,
-	 * .bi, .bin, .binary)
+	 * .bi, .bin, .binary) or a memory-mapped file (.mmap)
 	 * 
 	 * @param lmfile
 	 */
 	private void readLmFromFile(String lmfile) {
 		System.err.println("Loading language model from " + lmfile);
+		if (lmfile.endsWith(".mmap")) {
+			try {
+				mapped = new MappedLm(lmfile);
+			} catch (IOException e) {
+				throw new RuntimeException("Error loading " + lmfile, e);
+			}
+			return;
+		}
 		StringWordIndexer swi = new StringWordIndexer();
 		NgramLanguageModel<String> ngramLm;
 		if (lmfile.endsWith(".b") || lmfile.endsWith(".bi")
@@ -52,8 +74,27 @@ public class MyBerkeleyLm {
 			ngramLm = LmReaders
 					.readArrayEncodedLmFromArpa(lmfile, false, swi);
 		}
-		lm = ArrayEncodedCachingLmWrapper
-				.wrapWithCacheNotThreadSafe((ArrayEncodedNgramLanguageModel<String>) ngramLm);
+		lm = (ArrayEncodedNgramLanguageModel<String>) ngramLm;
+	}
+
+	/**
+	 * the lm with the cache of the calling thread
+	 * 
+	 * @return
+	 */
+	ArrayEncodedNgramLanguageModel<String> cached() {
+		return cachedLm.get();
+	}
+
+	/**
+	 * set the size of the caches of threads that have not queried the lm yet.
+	 * Each cache holds 2^bits n-grams (the default, 24, takes about 300MB for
+	 * a trigram lm).
+	 * 
+	 * @param bits
+	 */
+	public void setCacheBits(int bits) {
+		cacheBits = bits;
 	}
 
 	// various methods for getting the log probability of an n-gram or a
@@ -63,48 +104,113 @@ public class MyBerkeleyLm {
 		List<String> ngram = new LinkedList<String>();
 		for (String ss : s.split("\\s+"))
 			ngram.add(ss);
-		return lm.getLogProb(ngram);
+		return getLogProb(ngram);
 	}
 
 	public double getSentenceLogProb(String s) {
 		List<String> sentence = new LinkedList<String>();
 		for (String ss : s.split("\\s+"))
 			sentence.add(ss);
-		return lm.scoreSentence(sentence);
+		return getSentenceLogProb(sentence);
 	}
 
 	public double getLogProb(String... strings) {
 		List<String> ngram = new LinkedList<String>(Arrays.asList(strings));
-		return lm.getLogProb(ngram);
+		return getLogProb(ngram);
 	}
 
 	public double getSentenceLogProb(String... strings) {
 		List<String> sentence = new LinkedList<String>(Arrays.asList(strings));
-		return lm.scoreSentence(sentence);
+		return getSentenceLogProb(sentence);
+	}
+
+	/**
+	 * the id of a word in the lm, for querying n-grams as arrays of ids
+	 * 
+	 * @param s
+	 * @return
+	 */
+	public int getId(String s) {
+		if (mapped != null)
+			return mapped.getId(s);
+		return lm.getWordIndexer().getIndexPossiblyUnk(s);
+	}
+
+	/**
+	 * the log probability of the n-gram ngram[start..end-1] of word ids
+	 * 
+	 * @param ngram
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	public double getLogProb(int[] ngram, int start, int end) {
+		if (mapped != null)
+			return mapped.getLogProb(ngram, start, end);
+		return cached().getLogProb(ngram, start, end);
 	}
 
 	public double getLogProb(List<String> s) {
-		return lm.getLogProb(s);
+		if (mapped != null) {
+			int[] ngram = getIds(s);
+			return mapped.getLogProb(ngram, 0, ngram.length);
+		}
+		return cached().getLogProb(s);
 	}
 
 	public double getSentenceLogProb(List<String> s) {
-		return lm.scoreSentence(s);
+		if (mapped != null) {
+			List<String> bounded = new ArrayList<String>(s);
+			bounded.add(0, startSymbol());
+			bounded.add(endSymbol());
+			int[] ids = getIds(bounded);
+			double score = 0;
+			for (int i = 1; i < ids.length; i++)
+				score += mapped.getLogProb(ids, Math.max(0, i + 1 - getOrder()), i + 1);
+			return score;
+		}
+		return cached().scoreSentence(s);
+	}
+
+	int[] getIds(List<String> s) {
+		int[] ids = new int[s.size()];
+		int i = 0;
+		for (String w : s)
+			ids[i++] = getId(w);
+		return ids;
 	}
 
 	public String endSymbol() {
+		if (mapped != null)
+			return MappedLm.END_SYMBOL;
 		return lm.getWordIndexer().getEndSymbol();
 	}
 
 	public String startSymbol() {
+		if (mapped != null)
+			return MappedLm.START_SYMBOL;
 		return lm.getWordIndexer().getStartSymbol();
 	}
 
 	public int getOrder() {
+		if (mapped != null)
+			return mapped.getOrder();
 		return lm.getLmOrder();
 	}
 
+	/**
+	 * size of the vocabulary
+	 * 
+	 * @return
+	 */
+	public int numWords() {
+		if (mapped != null)
+			return mapped.numWords();
+		return lm.getWordIndexer().numWords();
+	}
+
 	public int getWordFrequency(String s) {
-		return (int) (lm.getWordIndexer().numWords() * Math
+		return (int) (numWords() * Math
 						.exp(getLogProb(s)));
 	}
 
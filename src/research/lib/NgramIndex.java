@@ -0,0 +1,183 @@
+package research.lib;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A set of n-grams stored in a memory-mapped file, to serve the n-gram
+ * constraint without an n-gram server. Build it once from a list of n-grams,
+ * one per line (anything after a tab, such as a count, is ignored):
+ *
+ * java research.lib.NgramIndex ngrams.txt[.gz] ngrams.idx
+ *
+ * The file has a header and then a hash table (open addressing with linear
+ * probing) of 64-bit fingerprints of the lowercased n-grams, so it is about
+ * 16 bytes per n-gram. Two n-grams rarely share a fingerprint (about once in
+ * 2^64 / size lookups), in which case an unseen n-gram is reported as seen.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class NgramIndex implements NgramLookup {
+	static final int MAGIC = 0x53434e47; // "SCNG"
+	static final int VERSION = 1;
+	static final int HEADER = 24; // bytes
+
+	long size; // number of n-grams
+	long capacity; // slots in the table (power of 2)
+	MappedByteBuffer[] chunks;
+
+	/**
+	 * map an index written by build()
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public NgramIndex(String file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		FileChannel channel = raf.getChannel();
+		chunks = MappedLm.map(channel, FileChannel.MapMode.READ_ONLY, channel.size());
+		raf.close(); // the mappings stay valid
+
+		if (getInt(0) != MAGIC || getInt(4) != VERSION)
+			throw new IOException(file + " is not an n-gram index");
+		size = getLong(8);
+		capacity = getLong(16);
+	}
+
+	private NgramIndex() {}
+
+	public long size() { return size; }
+
+	/**
+	 * is the n-gram (words separated by single spaces) in the index
+	 */
+	public boolean contains(String ngram) {
+		long key = fingerprint(ngram);
+		long mask = capacity - 1;
+		for (long slot = MappedLm.hash(key) & mask;; slot = (slot + 1) & mask) {
+			long k = getLong(HEADER + 8 * slot);
+			if (k == key) return true;
+			if (k == 0) return false;
+		}
+	}
+
+	public int[] hasNgrams(List<String> ngrams) {
+		int[] found = new int[ngrams.size()];
+		for (int i = 0; i < found.length; i++)
+			found[i] = contains(ngrams.get(i)) ? 1 : 0;
+		return found;
+	}
+
+	public void close() {
+		chunks = null;
+	}
+
+	/**
+	 * a 64-bit hash of the lowercased n-gram, never 0 (which marks an empty
+	 * slot)
+	 */
+	static long fingerprint(String ngram) {
+		long h = 0xcbf29ce484222325L; // FNV-1a, then mixed
+		for (int i = 0; i < ngram.length(); i++) {
+			h ^= Character.toLowerCase(ngram.charAt(i));
+			h *= 0x100000001b3L;
+		}
+		h = MappedLm.hash(h);
+		return h == 0 ? 1 : h;
+	}
+
+	int getInt(long pos) {
+		return chunks[(int) (pos >>> MappedLm.CHUNK_BITS)].getInt((int) (pos & ((1L << MappedLm.CHUNK_BITS) - 1)));
+	}
+
+	long getLong(long pos) {
+		return chunks[(int) (pos >>> MappedLm.CHUNK_BITS)].getLong((int) (pos & ((1L << MappedLm.CHUNK_BITS) - 1)));
+	}
+
+	void putLong(long pos, long v) {
+		chunks[(int) (pos >>> MappedLm.CHUNK_BITS)].putLong((int) (pos & ((1L << MappedLm.CHUNK_BITS) - 1)), v);
+	}
+
+	static BufferedReader open(String file) throws IOException {
+		InputStream is = new FileInputStream(file);
+		if (file.endsWith(".gz"))
+			is = new GZIPInputStream(is);
+		return new BufferedReader(new InputStreamReader(is, "UTF-8"));
+	}
+
+	/**
+	 * build an index from a list of n-grams (optionally gzipped), one per
+	 * line. The list is read twice: once to size the table, then to fill it.
+	 *
+	 * @param ngramFile
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void build(String ngramFile, String file) throws IOException {
+		long lines = 0;
+		BufferedReader input = open(ngramFile);
+		while (input.readLine() != null)
+			lines++;
+		input.close();
+
+		NgramIndex index = new NgramIndex();
+		index.capacity = Long.highestOneBit(Math.max(2, lines * 3 / 2)) * 2;
+		long bytes = HEADER + 8 * index.capacity;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(0);
+		raf.setLength(bytes);
+		index.chunks = MappedLm.map(raf.getChannel(), FileChannel.MapMode.READ_WRITE, bytes);
+
+		input = open(ngramFile);
+		String line;
+		long mask = index.capacity - 1;
+		while ((line = input.readLine()) != null) {
+			int tab = line.indexOf('\t');
+			String ngram = (tab < 0 ? line : line.substring(0, tab)).trim();
+			if (ngram.length() == 0) continue;
+			long key = fingerprint(ngram);
+			long slot = MappedLm.hash(key) & mask;
+			while (true) {
+				long k = index.getLong(HEADER + 8 * slot);
+				if (k == key) break;
+				if (k == 0) {
+					index.putLong(HEADER + 8 * slot, key);
+					index.size++;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		input.close();
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		header.putInt(MAGIC).putInt(VERSION).putLong(index.size).putLong(index.capacity);
+		for (int i = 0; i < HEADER; i++)
+			index.chunks[0].put(i, header.get(i));
+		for (MappedByteBuffer chunk : index.chunks)
+			chunk.force();
+		raf.close();
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage: java research.lib.NgramIndex ngrams.txt[.gz] output.idx");
+			System.exit(2);
+		}
+		long start = System.currentTimeMillis();
+		build(args[0], args[1]);
+		System.err.println("Indexed " + new NgramIndex(args[1]).size()
+				+ " n-grams from " + args[0] + " in "
+				+ (System.currentTimeMillis() - start) / 1000.0 + " s");
+	}
+}
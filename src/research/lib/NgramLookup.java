@@ -0,0 +1,26 @@
+package research.lib;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * answers whether n-grams appear in a corpus such as Google n-grams, for the
+ * n-gram constraint. Implemented by SocketClient, which queries an n-gram
+ * server, and NgramIndex, which reads a memory-mapped file.
+ * 
+ * @author Courtney Napoles
+ * 
+ */
+public interface NgramLookup {
+	/**
+	 * for each n-gram (words separated by single spaces), 1 if it appears in
+	 * the corpus and 0 otherwise
+	 * 
+	 * @param ngrams
+	 * @return
+	 * @throws IOException
+	 */
+	int[] hasNgrams(List<String> ngrams) throws IOException;
+
+	void close();
+}
@@ -0,0 +1,170 @@
+package research.lib;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A persistent cache of Stanford parses, so that sentences that have been
+ * parsed before (e.g. when compressing the same input with different settings)
+ * are not parsed again. The cache is a file of records appended as sentences
+ * are parsed, each holding a hash of the raw sentence, the raw sentence, and
+ * the tokenized text, parse and dependency parse. When the cache is opened,
+ * only the hashes and file offsets are read; records are read when they are
+ * needed, and the most recently used ones are kept in memory.
+ *
+ * @author Courtney Napoles
+ *
+ */
+public class ParseCache {
+	static final int MEMORY_SIZE = 10000; // records kept in memory
+
+	RandomAccessFile file;
+	HashMap<Long,Long> offsets = new HashMap<Long,Long>(); // hash -> record
+	Map<Long,String[]> recent = new LinkedHashMap<Long,String[]>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Long,String[]> eldest) {
+			return size() > MEMORY_SIZE;
+		}
+	};
+	int hits = 0, misses = 0;
+
+	/**
+	 * open (or create) the cache file
+	 *
+	 * @param filename
+	 * @throws IOException
+	 */
+	public ParseCache(String filename) throws IOException {
+		file = new RandomAccessFile(filename, "rw");
+		// index the complete records; a record cut off by an interrupted
+		// run is discarded
+		long end = 0, length = file.length();
+		try {
+			while (end < length) {
+				file.seek(end);
+				long hash = file.readLong();
+				int size = file.readInt();
+				if (end + 12 + size > length) break;
+				offsets.put(hash, end);
+				end += 12 + size;
+			}
+		} catch (IOException e) {
+			// incomplete header at the end of the file
+		}
+		if (end < length)
+			file.setLength(end);
+	}
+
+	/**
+	 * if the sentence is in the cache, set its tokenized text, parse and
+	 * dependency parse and return true
+	 *
+	 * @param s
+	 * @return
+	 */
+	public synchronized boolean fill(Sentence s) {
+		String[] record = get(s.getText());
+		if (record == null) {
+			misses++;
+			return false;
+		}
+		hits++;
+		s.setText(record[1]);
+		s.setParse(record[2]);
+		s.setDepParse(record[3]);
+		return true;
+	}
+
+	/**
+	 * add a parsed sentence to the cache
+	 *
+	 * @param text
+	 *            the raw sentence, before tokenization
+	 * @param s
+	 */
+	public synchronized void add(String text, Sentence s) {
+		String[] record = new String[] { text, s.getText(), s.getParse(), s.getDepParse() };
+		long hash = hash(text);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			for (String field : record) {
+				byte[] b = field.getBytes("UTF-8");
+				out.writeInt(b.length);
+				out.write(b);
+			}
+			out.close();
+			long offset = file.length();
+			file.seek(offset);
+			file.writeLong(hash);
+			file.writeInt(bytes.size());
+			file.write(bytes.toByteArray());
+			offsets.put(hash, offset);
+			recent.put(hash, record);
+		} catch (IOException e) {
+			System.err.println("Error writing to the parse cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * look up the record of a raw sentence, first in memory and then on disk
+	 */
+	String[] get(String text) {
+		long hash = hash(text);
+		String[] record = recent.get(hash);
+		if (record == null) {
+			Long offset = offsets.get(hash);
+			if (offset == null) return null;
+			try {
+				record = read(offset);
+			} catch (IOException e) {
+				System.err.println("Error reading the parse cache: " + e.getMessage());
+				return null;
+			}
+			recent.put(hash, record);
+		}
+		// different sentences with the same hash are a cache miss
+		return record[0].equals(text) ? record : null;
+	}
+
+	String[] read(long offset) throws IOException {
+		file.seek(offset + 12);
+		String[] record = new String[4];
+		for (int i = 0; i < record.length; i++) {
+			byte[] b = new byte[file.readInt()];
+			file.readFully(b);
+			record[i] = new String(b, "UTF-8");
+		}
+		return record;
+	}
+
+	/**
+	 * the first 8 bytes of the MD5 hash of the sentence
+	 */
+	static long hash(String text) {
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes("UTF-8"));
+			long hash = 0;
+			for (int i = 0; i < 8; i++)
+				hash = (hash << 8) | (digest[i] & 0xff);
+			return hash;
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		System.err.println("Parse cache: " + hits + " hits, " + misses
+				+ " misses, " + offsets.size() + " sentences");
+		file.close();
+	}
+}
@@ -1,152 +1,232 @@
 package research.lib;
 
-import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
- * hacky implementation of a parse tree
- * 
+ * A constituency parse in bracketed form, e.g. (ROOT (S (NP (DT The) (NN
+ * dog)) (VP (VBD barked)) (. .))), built in one pass over the string. Nodes
+ * are numbered in preorder from 0 (the root) and stored in arrays: the label
+ * (interned), parent, first child and next sibling of each node, its span of
+ * leaves, and its offsets in the string. The leaves are the preterminals
+ * (a tag and a word), numbered from 1 in order, like the tokens of a
+ * Sentence.
+ *
  * @author Courtney Napoles
- * 
+ *
  */
 public class ParseTree {
-	int height,begin,end, current=0;
-	ParseTree parent, root;
-	ArrayList<ParseTree> children;
-	String label, value, bracketed;
-	boolean isLeaf=false, hasParaphrase=false;
-	Pattern pLabel = Pattern.compile("\\((\\S*)\\s+");
-	Pattern pValue = Pattern.compile("\\(\\S+\\s+(\\S+)\\)");
-	ArrayList<List<ParseTree>> nodesByDepth;
+	String parse;
+	int size = 0; // number of nodes
+	String[] label = new String[16];
+	int[] parent = new int[16], firstChild = new int[16], nextSibling = new int[16];
+	int[] height = new int[16]; // distance from the root
+	int[] begin = new int[16], end = new int[16]; // first and last leaf
+	int[] from = new int[16], to = new int[16]; // offsets of ( and after )
+	int leaves = 0; // number of leaves
+	int[] leafNode = new int[16]; // node of each leaf
+	int[] wordFrom = new int[16], wordTo = new int[16]; // offsets of its word
+	int depth = 0; // number of levels
 
+	public ParseTree(String s) {
+		parse = s;
+		int n = s.length();
+		int[] open = new int[16]; // stack of open nodes
+		int top = -1;
+		int[] last = new int[16]; // last child of each open node
+		int p = 0;
+		while (p < n) {
+			char c = s.charAt(p);
+			if (c == '(') {
+				int node = addNode(top < 0 ? -1 : open[top], p);
+				if (top >= 0) {
+					if (last[top] < 0) firstChild[open[top]] = node;
+					else nextSibling[last[top]] = node;
+					last[top] = node;
+				}
+				int q = ++p;
+				while (p < n && !isDelimiter(s.charAt(p)))
+					p++;
+				label[node] = s.substring(q, p).intern();
+				if (++top == open.length) {
+					open = Arrays.copyOf(open, top * 2);
+					last = Arrays.copyOf(last, top * 2);
+				}
+				open[top] = node;
+				last[top] = -1;
+			}
+			else if (c == ')') {
+				p++;
+				if (top < 0) continue;
+				int node = open[top--];
+				to[node] = p;
+				if (begin[node] == 0 && firstChild[node] >= 0) {
+					begin[node] = begin[firstChild[node]];
+					for (int k = firstChild[node]; k >= 0; k = nextSibling[k])
+						end[node] = end[k];
+				}
+			}
+			else if (Character.isWhitespace(c))
+				p++;
+			else {
+				int q = p;
+				while (p < n && !isDelimiter(s.charAt(p)))
+					p++;
+				if (top >= 0) addLeaf(open[top], q, p);
+			}
+		}
+	}
 
-	public int depth() { return nodesByDepth.size(); }
-
-	public int getBegin() { return begin; }
-	public int getEnd() { return end; }
-	public String getLabel() { return label; }
-	public ArrayList<ParseTree> getChildren() { return children; }
+	static boolean isDelimiter(char c) {
+		return c == '(' || c == ')' || Character.isWhitespace(c);
+	}
 
-	public List<ParseTree> nodesAtDepth(int i) {
-		return nodesByDepth.get(i);
+	int addNode(int parentNode, int offset) {
+		if (size == label.length) {
+			int length = size * 2;
+			label = Arrays.copyOf(label, length);
+			parent = Arrays.copyOf(parent, length);
+			firstChild = Arrays.copyOf(firstChild, length);
+			nextSibling = Arrays.copyOf(nextSibling, length);
+			height = Arrays.copyOf(height, length);
+			begin = Arrays.copyOf(begin, length);
+			end = Arrays.copyOf(end, length);
+			from = Arrays.copyOf(from, length);
+			to = Arrays.copyOf(to, length);
+		}
+		int node = size++;
+		parent[node] = parentNode;
+		firstChild[node] = nextSibling[node] = -1;
+		height[node] = parentNode < 0 ? 0 : height[parentNode] + 1;
+		depth = Math.max(depth, height[node] + 1);
+		begin[node] = end[node] = 0;
+		from[node] = offset;
+		to[node] = parse.length();
+		return node;
 	}
 
-	public String getLabeledString() {
-		//		System.out.println(label+": "+begin+"-"+end);
-		if (isLeaf) return begin+"-"+label+"-"+value;
-		String s = "";
-		ArrayList<String> temp = new ArrayList<String>();
-		for (ParseTree c : children)
-			temp.add(c.getLabeledString());
-		for (String t : temp)
-			s+=t+" ";
-		return s.trim();
+	void addLeaf(int node, int wordStart, int wordEnd) {
+		if (++leaves == leafNode.length) {
+			leafNode = Arrays.copyOf(leafNode, leaves * 2);
+			wordFrom = Arrays.copyOf(wordFrom, leaves * 2);
+			wordTo = Arrays.copyOf(wordTo, leaves * 2);
+		}
+		leafNode[leaves] = node;
+		wordFrom[leaves] = wordStart;
+		wordTo[leaves] = wordEnd;
+		if (begin[node] == 0) begin[node] = leaves;
+		end[node] = leaves;
 	}
 
-	public String toString() {
-		//		System.out.println(label+": "+begin+"-"+end);
-		if (isLeaf) return value;
-		String s = "";
-		ArrayList<String> temp = new ArrayList<String>();
-		if (children==null) return "";
-		for (ParseTree c : children)
-			temp.add(c.toString());
-		for (String t : temp)
-			s+=t+" ";
-		return s.trim();
+	public int size() { return size; }
+
+	public int numLeaves() { return leaves; }
+
+	public int depth() { return depth; }
+
+	public String getLabel(int node) { return label[node]; }
+
+	public int getParent(int node) { return parent[node]; }
+
+	public int getFirstChild(int node) { return firstChild[node]; }
+
+	public int getNextSibling(int node) { return nextSibling[node]; }
+
+	public int getHeight(int node) { return height[node]; }
+
+	public int getBegin(int node) { return begin[node]; }
+
+	public int getEnd(int node) { return end[node]; }
+
+	public boolean isLeaf(int node) { return firstChild[node] < 0; }
+
+	/**
+	 * the node (preterminal) of leaf i
+	 */
+	public int getLeafNode(int i) { return leafNode[i]; }
+
+	/**
+	 * the part of speech of leaf i
+	 */
+	public String getTag(int i) { return label[leafNode[i]]; }
+
+	/**
+	 * the word of leaf i
+	 */
+	public String getWord(int i) { return parse.substring(wordFrom[i], wordTo[i]); }
+
+	/**
+	 * the bracketed string of a node
+	 */
+	public String getBracketed(int node) { return parse.substring(from[node], to[node]); }
+
+	/**
+	 * the nodes i levels below the root, in order
+	 */
+	public List<Integer> nodesAtDepth(int i) {
+		List<Integer> nodes = new ArrayList<Integer>();
+		for (int node = 0; node < size; node++)
+			if (height[node] == i) nodes.add(node);
+		return nodes;
 	}
 
-	public ParseTree(String s, ParseTree parent) {
-		bracketed = s;
-		this.parent = parent;
-		if (parent==null) {
-			height = 0;
-			root = this;
-			nodesByDepth=new ArrayList<List<ParseTree>>();
-		}
-		else {
-			height = parent.height+1;
-			root = parent.root;
-		}
-		if (root.nodesByDepth.size() <= height) {
-			root.nodesByDepth.add(height, new LinkedList<ParseTree>());
-		}
-		root.nodesByDepth.get(height).add(this);
-		parse(s);
+	/**
+	 * the nodes in breadth-first order
+	 */
+	public int[] breadthFirst() {
+		int[] order = new int[size];
+		if (size == 0) return order;
+		int next = 1;
+		for (int i = 0; i < next; i++)
+			for (int k = firstChild[order[i]]; k >= 0; k = nextSibling[k])
+				order[next++] = k;
+		return order;
 	}
 
-	public void parse(String s) {
-		s = s.trim();
-		//		System.out.println("EVAL="+s);
-		if (s.matches("\\(\\S+\\s+\\S+\\)")) {
-			setLeaf(s);
-			return;
-		}
-		if (s.length() == 0 || s.charAt(0)!='(' || s.charAt(s.length()-1)!=')') {
-			System.err.println("error parsing string\t"+s);
-			return;
-		}
-		isLeaf=false;
-		Matcher m = pLabel.matcher(s);
-		m.find();
-		//		System.out.println("label="+m.group(1));
-		label = m.group(1);
-		String temp = s.substring(s.indexOf('(', 1),s.length()-1);
-		//		System.out.println(temp);
-		children = new ArrayList<ParseTree>();
-		while (temp.length() > 0) {
-			int count=0, i=1;
-			char[] c = temp.toCharArray();
-			if (c[0]=='(') count++;
-			for ( ; i < c.length; i++) {
-				//				System.out.println("i="+i+",c="+count);
-				if (count==0) break;
-				if (c[i]=='(') count++;
-				if (c[i]==')') count--;
-			}
-			//			System.out.println("first () ended at "+i);
-			setChild(temp.substring(0,i));
-			temp = temp.substring(i).trim();
-		}
-		begin = children.get(0).begin;
-		end = children.get(children.size()-1).end;
-		//		System.out.println(value+"\t"+label+" "+begin+"\t"+end);
+	/**
+	 * number of leaves under a node
+	 */
+	public int getSize(int node) {
+		return begin[node] == 0 ? 0 : end[node] - begin[node] + 1;
 	}
 
-	public void setChild(String substring) {
-		//		System.out.println("child: "+substring);
-		children.add(new ParseTree(substring,this));
+	/**
+	 * the words of a node, separated by spaces
+	 */
+	public String toString(int node) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = begin[node]; i > 0 && i <= end[node]; i++) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(parse, wordFrom[i], wordTo[i]);
+		}
+		return sb.toString();
 	}
 
-	public void setLeaf(String substring) {
-		root.current +=1;
-		begin=root.current;
-		end = root.current;
-		Matcher m = pLabel.matcher(substring);
-		isLeaf=true;
-		m.find();
-		label = m.group(1);
-		m = pValue.matcher(substring);
-		m.find();
-		value = m.group(1);
-		//		System.out.println("LEAF="+label+"_"+value);
+	/**
+	 * the words of a node, not separated
+	 */
+	public String getSpan(int node) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = begin[node]; i > 0 && i <= end[node]; i++)
+			sb.append(parse, wordFrom[i], wordTo[i]);
+		return sb.toString();
 	}
 
-	public int getSize() {
-		if (isLeaf) return 1;
-		int i = 0;
-		if (children == null) return 0;
-		for (ParseTree c : children)
-			i+=c.getSize();
-		return i;
+	/**
+	 * the leaves of a node as index-tag-word, separated by spaces
+	 */
+	public String getLabeledString(int node) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = begin[node]; i > 0 && i <= end[node]; i++) {
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(i).append('-').append(getTag(i)).append('-');
+			sb.append(parse, wordFrom[i], wordTo[i]);
+		}
+		return sb.toString();
 	}
 
-	public String getSpan() {
-		if (isLeaf) return value;
-		String s = "";
-		for (ParseTree c : children) 
-			s += c.getSpan();
-		return s;
+	public String toString() {
+		return size == 0 ? "" : toString(0);
 	}
 }
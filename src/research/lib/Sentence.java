@@ -10,7 +10,9 @@ import java.util.regex.Pattern;
 /**
  * represents a sentence and various information about it, including surface
  * form, parse, dependency structure, and various statistics for sentence
- * compression.
+ * compression. Tokens are stored as ids in a vocabulary shared with other
+ * sentences, tags as bytes, properties of tokens as bit flags and
+ * dependencies in parallel arrays, so many sentences fit in memory.
  * 
  * @author Courtney Napoles
  * 
@@ -22,8 +24,31 @@ public class Sentence {
 	// parses Stanford dependency output, $1 = rel, $2 = index a, $3 = index b
 	static final Pattern depPattern = Pattern
 			.compile("([a-z]+)\\(\\S+-([0-9]+),\\s\\S+-([0-9]+)\\)");
-	// matches a tuple (VP xxx), $1 = VP, $2 = xxx
-	static final Pattern parsePattern = Pattern.compile("\\((\\S+) (\\S+?)\\)");
+	static final Pattern wordPattern = Pattern.compile("\\w+");
+
+	// tokens and verb stems are stored as ids in a vocabulary shared by the
+	// sentences created while it is current. Once it holds MAX_WORDS strings,
+	// new sentences start a new one, so that with -stream or -server the
+	// vocabulary of old sentences is freed with them. Tags and dependency
+	// relations are closed sets, stored as bytes in vocabularies shared by all
+	// sentences.
+	static final int MAX_WORDS = 1 << 18;
+	static Vocabulary current = newVocabulary();
+	static final Vocabulary tags = new Vocabulary();
+	static final Vocabulary relations = new Vocabulary();
+	// the same in every vocabulary
+	static final int START = 0, QUOTE = 1, OPEN = 2, CLOSE = 3, NONE = 4;
+	static final byte START_TAG = (byte) tags.id("<S>");
+
+	final Vocabulary vocab = sharedVocabulary(); // of the tokens and verbs
+
+	// flags of each token
+	static final byte PUNCT = 1; // punctuation
+	static final byte PARENS = 2; // in brackets
+	static final byte VERB = 4;
+	static final byte NOUN = 8;
+	static final byte PRP = 16; // personal pronoun
+	static final byte WORD = 32; // only word characters
 
 	// used for outline generation only:
 	// verbs should be in the document or the OutlineGenerator class,
@@ -40,23 +65,51 @@ public class Sentence {
 	// used for compression and outline generation
 	// information about this sentence
 	String text, parse = null, depParse = null;
+	ParseTree tree = null; // of parse, built on demand
 	String id;
-	String tokens[], original[], pos[], verbs[], pi[], verbsInSent;
-	boolean parens[]; // is token i in brackets?
-	boolean punct[]; // is token i punctuation?
-	boolean edges[][]; // is there a dependency between tokens i and j?
+	String pi[], verbsInSent;
+	int tokens[]; // lowercased tokens (ids in vocab)
+	int original[]; // tokens as in the text (ids in vocab)
+	int verbs[]; // stem of each verb (ids in vocab)
+	byte pos[]; // part of speech of each token (ids in tags)
+	byte flags[]; // PUNCT, PARENS, VERB, NOUN, PRP and WORD of each token
+	// the dependency graph: the dependents of token i, in order, are
+	// children[childStart[i]] to children[childStart[i + 1] - 1]
+	int childStart[], children[];
 	int len, originalLength; // len = originalLength + 1 (for <s>)
 	int height = 0; // deepest level of embedding
 	int depth[]; // = -1 if not a topic word, o/w the first index of the (A x)
-	List<GrammarDependency> dependencies; // grammatical relations in this
-	// sentence
+	// grammatical relations in this sentence, sorted by relation: the
+	// relation (id in relations), its kind, governor and dependent
+	byte depRel[], depKind[];
+	int depGov[], depDep[];
 	LinkedList<Clause> clauses; //for PPs and SBARs
 	Document document = null; // if this sentence belongs to a document
 	// Every sentence starts at index 0. index -1 is the start node <s>
-	int[] charLength; // length of each token
+	long parseTime = 0; // ns spent parsing (0 if the parse was given or cached)
 
 	public Sentence() {}
 
+	/**
+	 * a vocabulary holding the strings whose ids are constants
+	 */
+	static Vocabulary newVocabulary() {
+		Vocabulary v = new Vocabulary();
+		for (String w : new String[] { "<s>", "\"", "(", ")", "" })
+			v.id(w);
+		return v;
+	}
+
+	/**
+	 * the vocabulary for a new sentence, starting a new one if the current
+	 * one is full
+	 */
+	static synchronized Vocabulary sharedVocabulary() {
+		if (current.size() >= MAX_WORDS)
+			current = newVocabulary();
+		return current;
+	}
+
 	/**
 	 * initialize the features of this sentence
 	 */
@@ -71,23 +124,18 @@ public class Sentence {
 		}
 		String[] temp = text.split("\\s+");
 		len = temp.length+1;
-		original = new String[len];
-		tokens = new String[len];
-		original[0] = "<s>";
-		tokens[0] = "<s>";
+		original = new int[len];
+		tokens = new int[len];
+		flags = new byte[len];
+		original[0] = START;
+		tokens[0] = START;
 		for (int i = 1; i < len; i++) {
-			original[i] = temp[i-1];
-			tokens[i] = temp[i - 1].toLowerCase();
+			original[i] = vocab.id(temp[i-1]);
+			String token = temp[i - 1].toLowerCase();
 			// change form of quotation marks to match those in the Gigaword lm
-			if (isQuotationMark(temp[i - 1])) {
-				tokens[i] = "\"";
-			}
-		}
-		charLength = new int[len];
-		for (int i = 1; i < len; i++) {
-			charLength[i] = tokens[i].length() + 1; // each token length
-			// includes a space
-			// following the token
+			tokens[i] = isQuotationMark(temp[i - 1]) ? QUOTE : vocab.id(token);
+			if (wordPattern.matcher(vocab.word(tokens[i])).matches())
+				flags[i] |= WORD;
 		}
 
 		if (inputIsParsed) {
@@ -108,12 +156,12 @@ public class Sentence {
 			String header = "\t";
 			for (int i = 0; i < len; i++) {
 				header += i + "\t";
-				orig += original[i] + "\t";
-				tokenlist += tokens[i] + "\t";
-				chars += charLength[i] + "\t";
-				postags += pos[i] + "\t";
-				puncts += punct[i] + "\t";
-				brackets += parens[i] + "\t";
+				orig += getOriginal(i) + "\t";
+				tokenlist += getToken(i) + "\t";
+				chars += getCharLength(i) + "\t";
+				postags += (pos == null ? null : getPos(i)) + "\t";
+				puncts += isPunct(i) + "\t";
+				brackets += isParens(i) + "\t";
 			}
 			System.err.println(header);
 			System.err.println(orig);
@@ -126,48 +174,53 @@ public class Sentence {
 
 	}
 
+	/**
+	 * the tree of the sentence parse, built the first time it is needed
+	 */
+	public ParseTree getTree() {
+		if (tree == null) tree = new ParseTree(parse);
+		return tree;
+	}
+
 	/**
 	 * extract tokens from the sentence parse
 	 */
 	public void extractTokens() {
-		text = "";
-		Matcher m = parsePattern.matcher(parse);
-		int i = 0;
+		ParseTree t = getTree();
 		StringBuilder sb = new StringBuilder();
-		while (m.find(i)) {
-			sb.append(m.group(2));
-			sb.append(" ");
-			i = m.end(2);
+		for (int i = 1; i <= t.numLeaves(); i++) {
+			if (i > 1) sb.append(' ');
+			sb.append(t.getWord(i));
 		}
-		text = sb.toString().trim();
+		text = sb.toString();
 	}
 
 	/**
 	 * determine the part of speech of all tokens, and whether they are verbs or punctuation
 	 */
 	public void extractPOSTags() {
-		pos = new String[len];
-		punct = new boolean[len];
-		pos[0] = "<S>";
-		punct[0] = false;
-		int index = 1;
-		Matcher m = parsePattern.matcher(parse);
-		int i = 0;
+		ParseTree t = getTree();
+		pos = new byte[len];
+		pos[0] = START_TAG;
 		char c;
-		StringBuffer sb = new StringBuffer();
+		StringBuilder sb = new StringBuilder();
 
-		while (m.find(i)) {
-			pos[index] = m.group(1);
-			i = m.end(1);
-			c = pos[index].charAt(0);
+		for (int index = 1; index <= t.numLeaves() && index < len; index++) {
+			String tag = t.getTag(index);
+			pos[index] = tagId(tag);
+			c = tag.charAt(0);
 			if (c == 'V' || c == 'v') {
-				sb.append(tokens[index]);
+				flags[index] |= VERB;
+				sb.append(getToken(index));
 				sb.append("_V ");
 			}
 			if (c == '.' || c == ',' || c == ':' ) {
-				punct[index] = true;
+				flags[index] |= PUNCT;
 			}
-			index++;
+			if (c == 'N')
+				flags[index] |= NOUN;
+			if (tag.equals("PRP"))
+				flags[index] |= PRP;
 		}
 		verbsInSent = sb.toString();
 	}
@@ -216,30 +269,92 @@ public class Sentence {
 		}
 		input.close();
 
-		verbs = new String[len];
-		Arrays.fill(verbs,"");
+		verbs = new int[len];
+		Arrays.fill(verbs, NONE);
 		int index = 1;
 		for (String stem : sb.toString().split("\\s")) {
 			while (!isVerb(index)) index++;
-			verbs[index++] = stem;
+			verbs[index++] = vocab.id(stem);
 		}
 	}
 
 	/**
-	 * load the dependency graph
+	 * load the dependency graph, with the dependencies sorted by relation
 	 */
 	public void loadDependencies() {
-		edges = new boolean[len][len];
 		Matcher m = depPattern.matcher(depParse);
-		dependencies = new LinkedList<GrammarDependency>();
+		ArrayList<String> rels = new ArrayList<String>();
+		ArrayList<Integer> govs = new ArrayList<Integer>();
+		ArrayList<Integer> deps = new ArrayList<Integer>();
 		int i = 0;
 
 		while (m.find(i)) {
-			dependencies.add(new GrammarDependency(m.group(1), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3))));
-			edges[Integer.parseInt(m.group(2))][Integer.parseInt(m.group(3))] = true;
+			rels.add(m.group(1));
+			govs.add(Integer.parseInt(m.group(2)));
+			deps.add(Integer.parseInt(m.group(3)));
 			i = m.end();
 		}
-		Collections.sort(dependencies);
+
+		// a stable sort, so dependencies of the same relation keep their order
+		final ArrayList<String> r = rels;
+		Integer[] order = new Integer[rels.size()];
+		for (i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return r.get(a).compareTo(r.get(b));
+			}
+		});
+		depRel = new byte[order.length];
+		depKind = new byte[order.length];
+		depGov = new int[order.length];
+		depDep = new int[order.length];
+		for (i = 0; i < order.length; i++) {
+			String rel = rels.get(order[i]);
+			depRel[i] = relationId(rel);
+			depKind[i] = GrammarDependency.kind(rel);
+			depGov[i] = govs.get(order[i]);
+			depDep[i] = deps.get(order[i]);
+		}
+		buildGraph();
+	}
+
+	/**
+	 * index the dependents of each token, so memory is linear in the number
+	 * of dependencies
+	 */
+	void buildGraph() {
+		childStart = new int[len + 1];
+		for (int d = 0; d < depGov.length; d++)
+			childStart[depGov[d] + 1]++;
+		for (int i = 0; i < len; i++)
+			childStart[i + 1] += childStart[i];
+		children = new int[depGov.length];
+		int[] next = Arrays.copyOf(childStart, len);
+		for (int d = 0; d < depGov.length; d++)
+			children[next[depGov[d]]++] = depDep[d];
+		for (int i = 0; i < len; i++)
+			Arrays.sort(children, childStart[i], childStart[i + 1]);
+	}
+
+	/**
+	 * the byte code of a tag
+	 */
+	static byte tagId(String tag) {
+		int id = tags.id(tag);
+		if (id > Byte.MAX_VALUE)
+			throw new IllegalStateException("too many distinct tags: " + tag);
+		return (byte) id;
+	}
+
+	/**
+	 * the byte code of a dependency relation
+	 */
+	static byte relationId(String rel) {
+		int id = relations.id(rel);
+		if (id > Byte.MAX_VALUE)
+			throw new IllegalStateException("too many distinct relations: " + rel);
+		return (byte) id;
 	}
 
 	/**
@@ -247,56 +362,52 @@ public class Sentence {
 	 */
 	public void findClauses() {
 		clauses = new LinkedList<Clause>();
-		LinkedList<ParseTree> toExplore = new LinkedList<ParseTree>();
-		toExplore.add(new ParseTree(parse, null));
-		while (!toExplore.isEmpty()) {
-			ParseTree temp = toExplore.removeFirst();
-			if (temp.getChildren() != null)
-				toExplore.addAll(temp.getChildren());
-			if (temp.getLabel().equalsIgnoreCase("PP")
-					|| temp.getLabel().equalsIgnoreCase("SBAR")) {
+		ParseTree t = getTree();
+		for (int node : t.breadthFirst()) {
+			if (t.getLabel(node).equalsIgnoreCase("PP")
+					|| t.getLabel(node).equalsIgnoreCase("SBAR")) {
 				Clause c = new Clause();
-				if (c.init(temp.bracketed, temp.begin, temp.end))
+				if (c.init(t, node))
 					clauses.add(c);
 			}
 		}
 	}
 
 	/**
-	 * for each token, calculate its level of embedding
+	 * for each token, calculate its level of embedding: the number of S nodes
+	 * above it in the parse. Counts the S nodes above each node of the tree
+	 * in preorder, then matches the tokens to the leaves in order. A token is
+	 * matched to the first leaf (at or after the previous token's) that is
+	 * the same ignoring case; if there is none, it and all later tokens get
+	 * depth 0.
 	 */
 	public void calculateDepth() {
-		String clauses = parse;
-		String temp = "";
 		depth = new int[len];
-
-		while (!temp.equals(clauses)) {
-			temp = clauses;
-			clauses = clauses.replaceAll("\\(S ([^\\(]*?)\\)", "<<< $1 >>>");
-			clauses = clauses.replaceAll("\\((\\S{2,}|[^S]) ([^\\(]*?)\\)",
-					"$2");
+		ParseTree t = getTree();
+		int[] s = new int[t.size()]; // S nodes at or above each node
+		for (int node = 0; node < t.size(); node++) {
+			int p = t.getParent(node);
+			s[node] = (p < 0 ? 0 : s[p]) + (t.getLabel(node).equals("S") ? 1 : 0);
 		}
-		String[] bp = clauses.split("\\s+");
-		int j = 0;
-		String depths = "DEPTH\t-1\t";
-		for (int i = 1; i < len; i++) {
-			while (j < bp.length && !tokens[i].equalsIgnoreCase(bp[j]))
-				j++;
-			int d = 0;
-			for (int k = 0; k < j; k++) {
-				if (bp[k].equals("<<<"))
-					d++;
-				else if (bp[k].equals(">>>"))
-					d--;
-			}
-			depth[i] = d;
-			depths += depth[i] + "\t";
+
+		int i = 1;
+		for (int leaf = 1; leaf <= t.numLeaves(); leaf++) {
+			String word = t.getWord(leaf);
+			int d = s[t.getLeafNode(leaf)];
+			while (i < len && getToken(i).equalsIgnoreCase(word))
+				depth[i++] = d;
 		}
+		while (i < len)
+			depth[i++] = 0;
 
-		if (debug)
+		if (debug) {
+			StringBuilder depths = new StringBuilder("DEPTH\t-1\t");
+			for (i = 1; i < len; i++)
+				depths.append(depth[i] + "\t");
 			System.err.println(depths);
+		}
 		height = 1;
-		for (int i = 1; i < len; i++)
+		for (i = 1; i < len; i++)
 			if (depth[i] > height)
 				height = depth[i];
 	}
@@ -313,25 +424,22 @@ public class Sentence {
 		HashSet<String> allowableTags = new HashSet<String>(
 				Arrays.asList("TO,WDT,IN,WP,WP$,WRB,IN".split(",")));
 
-		public boolean init(String s, int start, int end) {
+		/**
+		 * the clause under a node of the parse tree
+		 */
+		public boolean init(ParseTree t, int node) {
 			ArrayList<Integer> items = new ArrayList<Integer>();
-			Matcher m = parsePattern.matcher(s);
-			int c = 0;
-			int i = start;
-			while (m.find(c)) {
-				if (c == 0) {
-					if (allowableTags.contains(m.group(1)))
-						return false;
-				}
-				c = m.end(1);
-				if (punct[i])
+			int start = t.getBegin(node), end = t.getEnd(node);
+			if (start == 0 || allowableTags.contains(t.getTag(start)))
+				return false;
+			for (int i = start; i <= end; i++) {
+				if (isPunct(i))
 					return false;
-				if (tokens[i].matches("\\w+"))
+				if (isWord(i))
 					items.add(i);
 				// don't include verbs in subordinate clauses in constraint that
 				// there must be at least one verb in sentence
 				// if (isVerb(i)) verbs[i]=-1;
-				i++;
 			}
 
 			if (items.size() == 0 && debug) {
@@ -340,7 +448,7 @@ public class Sentence {
 			}
 			head = items.get(0);
 			constituents = new int[items.size() - 1];
-			for (i = 1; i < items.size(); i++)
+			for (int i = 1; i < items.size(); i++)
 				constituents[i - 1] = items.get(i);
 			return true;
 		}
@@ -358,49 +466,41 @@ public class Sentence {
 	 * determine whether each token is within brackets
 	 */
 	public void findParens() {
-		parens = new boolean[len];
 		boolean inParens = false;
-		for (int i = 1; i < parens.length; i++) {
+		for (int i = 1; i < len; i++) {
 			if (inParens) {
-				parens[i] = true;
-				if (tokens[i].equals(")"))
+				flags[i] |= PARENS;
+				if (tokens[i] == CLOSE)
 					inParens = false;
 			} else {
-				if (tokens[i].equals("(")) {
+				if (tokens[i] == OPEN) {
 					inParens = true;
-					parens[i] = true;
+					flags[i] |= PARENS;
 				} else
-					parens[i] = false;
+					flags[i] &= ~PARENS;
 			}
 		}
 	}
 
 	// various lookups
-	public boolean isVerb(int i) {
-		return pos[i].charAt(0) == 'V' || pos[i].charAt(0) == 'v';
-	}
+	public boolean isVerb(int i) { return (flags[i] & VERB) != 0; }
 
-	public boolean isPRP(int i) {
-		return pos[i].equals("PRP");
-	}
+	public boolean isPRP(int i) { return (flags[i] & PRP) != 0; }
 
-	public boolean isNoun(int i) {
-		return pos[i].charAt(0) == 'N';
-	}
+	public boolean isNoun(int i) { return (flags[i] & NOUN) != 0; }
 
-	public boolean inParens(int i) {
-		return parens[i];
-	}
+	public boolean inParens(int i) { return (flags[i] & PARENS) != 0; }
 
-	public boolean isTopicWord(int i) {
-		return isVerb(i) || isNoun(i);
-	}
+	public boolean isTopicWord(int i) { return (flags[i] & (VERB | NOUN)) != 0; }
 
-	public boolean isParens(int i) {
-		return parens[i];
-	}
+	public boolean isParens(int i) { return (flags[i] & PARENS) != 0; }
+
+	public boolean isPunct(int i) { return (flags[i] & PUNCT) != 0; }
 
-	public boolean isPunct(int i) { return punct[i]; }
+	/**
+	 * is token i made only of word characters (\\w+)
+	 */
+	public boolean isWord(int i) { return (flags[i] & WORD) != 0; }
 
 	/**
 	 * checks if a string is a PTB-style quotation mark
@@ -418,41 +518,108 @@ public class Sentence {
 		return false;
 	}
 
-	public boolean hasEdge(int i, int j) { return edges[i][j]; }
+	/**
+	 * is there a dependency from token i to token j. A binary search of the
+	 * dependents of i, of which there are only a few.
+	 */
+	public boolean hasEdge(int i, int j) {
+		return Arrays.binarySearch(children, childStart[i], childStart[i + 1], j) >= 0;
+	}
+
+	/**
+	 * number of dependents of token i
+	 */
+	public int getNumChildren(int i) { return childStart[i + 1] - childStart[i]; }
+
+	/**
+	 * the c-th dependent of token i, in order
+	 */
+	public int getChild(int i, int c) { return children[childStart[i] + c]; }
 
 
 	// various setters and getters
-	public void setTokens(String tokens[]) { this.tokens = tokens; }
+	public void setTokens(String tokens[]) {
+		this.tokens = new int[tokens.length];
+		for (int i = 0; i < tokens.length; i++)
+			this.tokens[i] = vocab.id(tokens[i]);
+	}
 
-	public String[] getTokens() { return tokens; }
+	public String[] getTokens() { return words(tokens); }
 
-	public void setPos(String pos[]) { this.pos = pos; }
+	/**
+	 * the ids of the tokens in the vocabulary of this sentence (only
+	 * comparable with the ids of sentences that share it)
+	 */
+	public int[] getTokenIds() { return tokens; }
+
+	public void setPos(String pos[]) {
+		this.pos = new byte[pos.length];
+		for (int i = 0; i < pos.length; i++)
+			this.pos[i] = tagId(pos[i]);
+	}
 
-	public String[] getPosTags() { return pos; }
+	public String[] getPosTags() {
+		String[] s = new String[pos.length];
+		for (int i = 0; i < s.length; i++)
+			s[i] = getPos(i);
+		return s;
+	}
 
-	public String getPos(int i) { return pos[i]; }
+	public String getPos(int i) { return tags.word(pos[i]); }
 
 	public void setDepParse(String s) { depParse = s; }
 
-	public void setParse(String s) { parse = s; }
+	public void setParse(String s) { parse = s; tree = null; }
 
 	public void setText(String s) { text = s; }
 
 	public void setId(String s) { id = s; }
 
-	public String getVerb(int i) { return verbs[i]; }
+	public String getVerb(int i) { return vocab.word(verbs[i]); }
 
-	public List<GrammarDependency> getDependencies() { return dependencies; }
+	/**
+	 * the dependencies, sorted by relation, as objects
+	 */
+	public List<GrammarDependency> getDependencies() {
+		List<GrammarDependency> l = new ArrayList<GrammarDependency>(depRel.length);
+		for (int d = 0; d < depRel.length; d++)
+			l.add(new GrammarDependency(relations.word(depRel[d]), depGov[d], depDep[d]));
+		return l;
+	}
+
+	public int numDependencies() { return depRel.length; }
+
+	public String getRelation(int d) { return relations.word(depRel[d]); }
 
-	public String getToken(int i) { return tokens[i]; }
+	/**
+	 * the kind of relation of dependency d (GrammarDependency.MOD etc.)
+	 */
+	public byte getDependencyKind(int d) { return depKind[d]; }
+
+	public int getGovernor(int d) { return depGov[d]; }
+
+	public int getDependent(int d) { return depDep[d]; }
+
+	public String getToken(int i) { return vocab.word(tokens[i]); }
 
 	public int length() { return len; }
 	public int charLength() { return text.length(); }
 
-	public String[] getOriginal() { return original; }
+	public String[] getOriginal() { return words(original); }
+
+	String[] words(int[] ids) {
+		String[] s = new String[ids.length];
+		for (int i = 0; i < s.length; i++)
+			s[i] = vocab.word(ids[i]);
+		return s;
+	}
 
 	public String getParse() { return parse; }
 
+	public String getDepParse() { return depParse; }
+
+	public long getParseTime() { return parseTime; }
+
 	public String getId() {
 		if (document == null || document.getTitle().equals(""))
 			return id;
@@ -460,14 +627,15 @@ public class Sentence {
 	}
 
 	public String getOriginal(int i) {
-		return original[i];
+		return vocab.word(original[i]);
 	}
 
 	public double getFrequency(int i) {
-		if (!document.topicWordFreq.containsKey(tokens[i])) {
+		Double freq = document.topicWordFreq.get(getToken(i));
+		if (freq == null) {
 			return 0.1;
 		}
-		return document.topicWordFreq.get(tokens[i]);
+		return freq;
 	}
 
 	public String getText() { return text; }
@@ -490,14 +658,16 @@ public class Sentence {
 
 	public int getHeight() { return height; }
 
-	public String[] getVerbs() { return verbs; }
+	public String[] getVerbs() { return words(verbs); }
 	public void setParent(Document d) {
 		document = d;
 	}
 
+	/**
+	 * length of token i, including the space following it
+	 */
 	public int getCharLength(int i) {
-		return charLength[i];
-
+		return i == 0 ? 0 : getToken(i).length() + 1;
 	}
 
 	public static void resetVerbs() {
@@ -2,10 +2,13 @@ package research.lib;
 
 import java.io.*;
 import java.net.*;
+import java.util.List;
 
 /**
  * used for querying a Google n-gram server, which serves 0 or 1 depending on
- * whether an n-gram appears in the Google n-gram corpus.
+ * whether an n-gram appears in the Google n-gram corpus. Each request is an
+ * n-gram on a line of its own, and the server answers each with a line in
+ * the same order, so many requests can be sent before reading the answers.
  * 
  * adapted from
  * http://java.sun.com/developer/onlineTraining/Programming/BasicJava2
@@ -15,7 +18,8 @@ import java.net.*;
  * 
  */
 //
-public class SocketClient {
+public class SocketClient implements NgramLookup {
+	static final int BATCH = 4096; // requests sent before reading the answers
 
 	Socket socket = null;
 	PrintWriter out = null;
@@ -36,8 +40,9 @@ public class SocketClient {
 
 	public void listenSocket() throws UnknownHostException, IOException {
 			socket = new Socket(host, port);
-			out = new PrintWriter(socket.getOutputStream(), true);
-			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+					socket.getOutputStream(), "UTF-8")));
+			in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
 	}
 
 	/**
@@ -46,14 +51,47 @@ public class SocketClient {
 	 * @param s
 	 * @return
 	 */
-	public int hasNgram(String s) {
+	public synchronized int hasNgram(String s) {
+		out.println(s);
+		out.flush();
 		String t = "";
 		try { t = in.readLine(); }
 		catch (Exception e) {e.printStackTrace(); return 0; }
-		return Integer.parseInt(t);
+		return Integer.parseInt(t.trim());
 	}
 
-	public String getProbability(String s) {
+	/**
+	 * return 1 for each ngram present in Google n-grams, sending the requests
+	 * in batches of BATCH and reading the answers to each batch in one round
+	 * trip. Synchronized, so the workers of several threads may share one
+	 * connection.
+	 * 
+	 * @param ngrams
+	 * @return
+	 * @throws IOException
+	 */
+	public synchronized int[] hasNgrams(List<String> ngrams) throws IOException {
+		int[] found = new int[ngrams.size()];
+		for (int start = 0; start < found.length; start += BATCH) {
+			int end = Math.min(found.length, start + BATCH);
+			for (int i = start; i < end; i++)
+				out.println(ngrams.get(i));
+			out.flush();
+			if (out.checkError())
+				throw new IOException("Error sending n-grams to " + host);
+			for (int i = start; i < end; i++) {
+				String t = in.readLine();
+				if (t == null)
+					throw new IOException("n-gram server " + host + " closed the connection");
+				found[i] = Integer.parseInt(t.trim());
+			}
+		}
+		return found;
+	}
+
+	public synchronized String getProbability(String s) {
+		out.println(s);
+		out.flush();
 		String t = "";
 		try { t = in.readLine(); }
 		catch (Exception e) {e.printStackTrace(); }
@@ -0,0 +1,54 @@
+package research.lib;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * assigns an int id to each distinct string, so sentences can store tokens
+ * (and tags and relations) as ids and share one copy of each string. Ids are
+ * assigned in order of first appearance and never change. Safe for use by
+ * several threads: looking up a string that already has an id, or the string
+ * of an id, does not lock.
+ * 
+ * @author Courtney Napoles
+ * 
+ */
+public class Vocabulary {
+	ConcurrentHashMap<String,Integer> ids = new ConcurrentHashMap<String,Integer>();
+	volatile String[] words = new String[1024]; // the string of each id
+	int size = 0;
+
+	/**
+	 * the id of a string, adding it if it is new
+	 * 
+	 * @param s
+	 * @return
+	 */
+	public int id(String s) {
+		Integer id = ids.get(s);
+		if (id != null) return id;
+		synchronized (this) {
+			id = ids.get(s);
+			if (id != null) return id;
+			String[] w = words;
+			if (size == w.length)
+				w = Arrays.copyOf(w, size * 2);
+			w[size] = s;
+			words = w; // publish the string before the id
+			ids.put(s, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * the string of an id returned by id()
+	 * 
+	 * @param id
+	 * @return
+	 */
+	public String word(int id) {
+		return words[id];
+	}
+
+	public synchronized int size() { return size; }
+}